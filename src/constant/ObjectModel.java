@@ -0,0 +1,11 @@
+package constant;
+
+public enum ObjectModel {
+
+    THREAD_LOCAL, CONCURRENT;
+
+    // Selected once per JVM with -Djlox.objects=concurrent
+    public static final ObjectModel ACTIVE =
+            "concurrent".equalsIgnoreCase(System.getProperty("jlox.objects")) ? CONCURRENT : THREAD_LOCAL;
+
+}
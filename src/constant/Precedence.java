@@ -0,0 +1,22 @@
+package constant;
+
+public enum Precedence {
+
+    NONE,
+    PARALLEL,   // ,
+    CHOICE,     // ? :
+    ASSIGNMENT, // =
+    OR,
+    AND,
+    EQUALITY,   // == !=
+    COMPARISON, // < > <= >=
+    TERM,       // + -
+    FACTOR,     // * /
+    UNARY,      // ! - +
+    CALL;       // . ()
+
+    public Precedence next() {
+        return values()[ordinal() + 1];
+    }
+
+}
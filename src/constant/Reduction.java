@@ -0,0 +1,7 @@
+package constant;
+
+public enum Reduction {
+
+    SUM, MIN, MAX, COLLECT
+
+}
@@ -0,0 +1,11 @@
+package constant;
+
+public enum ValueRepresentation {
+
+    BOXED, NAN_BOXED;
+
+    // Selected once per JVM with -Djlox.values=nanbox
+    public static final ValueRepresentation ACTIVE =
+            "nanbox".equalsIgnoreCase(System.getProperty("jlox.values")) ? NAN_BOXED : BOXED;
+
+}
@@ -0,0 +1,10 @@
+package exceptions;
+
+// Thrown at a safepoint, where there is no token to blame
+public class BudgetExceededError extends RuntimeError {
+
+    public BudgetExceededError(String message) {
+        super(null, message);
+    }
+
+}
@@ -0,0 +1,7 @@
+package exceptions;
+
+public class CompileError extends RuntimeException {
+    public CompileError(String diagnostics) {
+        super(diagnostics);
+    }
+}
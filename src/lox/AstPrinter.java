@@ -78,6 +78,16 @@ public class AstPrinter implements Expr.Visitor<String> {
         return parenthesize("condition", expr.cond, expr.left, expr.right);
     }
 
+    @Override
+    public String visitAsyncExpr(Expr.Async expr) {
+        return null;
+    }
+
+    @Override
+    public String visitAwaitExpr(Expr.Await expr) {
+        return parenthesize(expr.keyword.lexeme, expr.value);
+    }
+
     @Override
     public String visitVariableExpr(Expr.Variable expr) {
         return null;
@@ -0,0 +1,72 @@
+package lox;
+
+import exceptions.BudgetExceededError;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits for running untrusted scripts: ticks (loop iterations plus
+ * function calls), allocations (environments and instances) and wall time
+ * in milliseconds.  {@link #UNLIMITED} turns a limit off.  Usage is checked
+ * at safepoints, so a script may overrun a limit by up to
+ * {@link #CHECK_INTERVAL} ticks, or by the straight-line code between two
+ * safepoints.  Natives that block wait no longer than the time left.
+ */
+public class Budget {
+
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    static final int CHECK_INTERVAL = 1024;
+
+    final long ticks;
+    final long allocations;
+    final long millis;
+
+    public Budget(long ticks, long allocations, long millis) {
+        this.ticks = ticks;
+        this.allocations = allocations;
+        this.millis = millis;
+    }
+
+    boolean isUnlimited() {
+        return ticks == UNLIMITED && allocations == UNLIMITED && millis == UNLIMITED;
+    }
+
+    // One run's usage, shared by the interpreter and its forks
+    class Meter {
+        private final AtomicLong ticksLeft = new AtomicLong(ticks);
+        private final AtomicLong allocationsLeft = new AtomicLong(allocations);
+        private final long deadline = millis == UNLIMITED ? Long.MAX_VALUE : System.nanoTime() + millis * 1_000_000;
+
+        void charge(int ticksUsed, int allocated) {
+            if (ticks != UNLIMITED && ticksLeft.addAndGet(-ticksUsed) < 0) {
+                throw new BudgetExceededError("Execution budget exceeded: more than " + ticks + " ticks.");
+            }
+            if (allocations != UNLIMITED && allocationsLeft.addAndGet(-allocated) < 0) {
+                throw new BudgetExceededError("Execution budget exceeded: more than " + allocations + " allocations.");
+            }
+            if (deadline != Long.MAX_VALUE && System.nanoTime() - deadline > 0) {
+                throw timedOut();
+            }
+        }
+
+        // Nanoseconds a blocking call may still wait; throws once the deadline has passed
+        long remaining() {
+            if (deadline == Long.MAX_VALUE) return Long.MAX_VALUE;
+            long left = deadline - System.nanoTime();
+            if (left <= 0) throw timedOut();
+            return left;
+        }
+
+        private BudgetExceededError timedOut() {
+            return new BudgetExceededError("Execution budget exceeded: ran longer than " + millis + " ms.");
+        }
+
+        // Ticks until the next check
+        int interval() {
+            if (ticks == UNLIMITED) return CHECK_INTERVAL;
+            return (int) Math.max(1, Math.min(CHECK_INTERVAL, ticksLeft.get() + 1));
+        }
+    }
+
+}
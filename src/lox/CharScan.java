@@ -0,0 +1,51 @@
+package lox;
+
+/**
+ * Bulk character classification for the {@link Scanner}.  Each method scans
+ * src[from, to) and returns the index of the first character that stops it,
+ * or {@code to}.  The vector implementation is used when the
+ * jdk.incubator.vector module is present, otherwise a scalar loop.
+ */
+abstract class CharScan {
+
+    static final CharScan INSTANCE = load();
+
+    private static CharScan load() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (CharScan) Class.forName("lox.VectorCharScan")
+                        .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // fall through to the scalar loops
+            }
+        }
+        return new ScalarCharScan();
+    }
+
+    // Skips ' ', '\t' and '\r'; newlines are left to the scanner for line counting
+    abstract int skipBlanks(char[] src, int from, int to);
+
+    abstract int identifierEnd(char[] src, int from, int to);
+
+    abstract int digitsEnd(char[] src, int from, int to);
+
+    abstract int indexOf(char[] src, int from, int to, char c);
+
+    abstract int count(char[] src, int from, int to, char c);
+
+    static boolean isBlank(char c) {
+        return c == ' ' || c == '\t' || c == '\r';
+    }
+
+    static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    static boolean isAlphaNumeric(char c) {
+        return (c >= 'a' && c <= 'z') ||
+               (c >= 'A' && c <= 'Z') ||
+               (c >= '0' && c <= '9') ||
+                c == '_';
+    }
+
+}
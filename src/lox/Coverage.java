@@ -0,0 +1,61 @@
+package lox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Line hits for one script under --coverage.  The Parser wraps each
+ * statement in a {@link model.Stmt.Probe} and marks its line as
+ * instrumented; the Interpreter bumps the line's counter as the probe runs.
+ * Without --coverage nothing is wrapped.  Counts from concurrent tasks may
+ * be lost to races, but whether a line ran is always right.
+ */
+class Coverage {
+
+    private final String source;
+    private long[] hits = new long[64];
+    private boolean[] instrumented = new boolean[64];
+
+    Coverage(String source) {
+        this.source = source;
+    }
+
+    void probe(int line) {
+        if (line >= hits.length) {
+            int length = Math.max(line + 1, hits.length * 2);
+            hits = Arrays.copyOf(hits, length);
+            instrumented = Arrays.copyOf(instrumented, length);
+        }
+        instrumented[line] = true;
+    }
+
+    // Only lines this script instrumented are counted.  Probes carry no
+    // source, so one from elsewhere, e.g. a function loaded from an image
+    // saved under --coverage, still counts if its line number matches.
+    void hit(int line) {
+        if (line < hits.length && instrumented[line]) hits[line]++;
+    }
+
+    void writeLcov(Path report) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(report, StandardCharsets.UTF_8))) {
+            int found = 0;
+            int covered = 0;
+            out.println("TN:");
+            out.println("SF:" + source);
+            for (int line = 0; line < hits.length; line++) {
+                if (!instrumented[line]) continue;
+                out.println("DA:" + line + "," + hits[line]);
+                found++;
+                if (hits[line] > 0) covered++;
+            }
+            out.println("LF:" + found);
+            out.println("LH:" + covered);
+            out.println("end_of_record");
+        }
+    }
+
+}
@@ -0,0 +1,365 @@
+package lox;
+
+import model.Expr;
+import model.Stmt;
+import model.Token;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides whether the two operands of a comma can be evaluated at the same
+ * time, and whether a parallel for body is safe on the plain object model.
+ * The AST is only checked for reads, arithmetic, local writes and calls by
+ * name.  Which function a name holds is only known at run time, so the
+ * functions an operand or body reaches are checked when it runs.  Anything
+ * that can't be proven independent stays sequential.
+ */
+class EffectAnalyzer {
+
+    // Natives that neither write nor print
+    private static final Set<String> PURE_NATIVES = Set.of("clock");
+    // Natives that write only what is safe to share between workers
+    private static final Set<String> SHARED_NATIVES = Set.of(
+            "clock", "sleep", "channel", "send", "receive", "close", "select");
+
+    // Marks an operand or function body with effects of its own
+    private static final List<Expr.Variable> IMPURE = Collections.unmodifiableList(new ArrayList<>());
+
+    // Callees by operand Expr or function declaration; the AST never changes
+    private final Map<Object, List<Expr.Variable>> callees = new ConcurrentHashMap<>();
+
+    // Both operands call something, and nothing either of them can reach
+    // writes a non-local variable, a field, or output.
+    boolean independent(Expr left, Expr right, Interpreter interpreter) {
+        List<Expr.Variable> leftCallees = callees.computeIfAbsent(left, operand -> walkOperand((Expr) operand));
+        if (leftCallees == IMPURE || leftCallees.isEmpty()) return false;
+        List<Expr.Variable> rightCallees = callees.computeIfAbsent(right, operand -> walkOperand((Expr) operand));
+        if (rightCallees == IMPURE || rightCallees.isEmpty()) return false;
+
+        Set<Stmt.Function> checked = Collections.newSetFromMap(new IdentityHashMap<>());
+        try {
+            for (Expr.Variable callee : leftCallees) {
+                if (!isPure(interpreter.lookUpVariable(callee.name, callee), interpreter, checked, PURE_NATIVES)) {
+                    return false;
+                }
+            }
+            for (Expr.Variable callee : rightCallees) {
+                if (!isPure(interpreter.lookUpVariable(callee.name, callee), interpreter, checked, PURE_NATIVES)) {
+                    return false;
+                }
+            }
+        } catch (RuntimeException e) {
+            // An undefined callee fails the same way when evaluated in order
+            return false;
+        }
+        return true;
+    }
+
+    // The body of loop writes nothing its workers share besides its
+    // reductions, which the Resolver already ensures for the body itself.
+    // Functions declared in the body are walked in place; anything else it
+    // calls must be a global function that writes only its own locals, or a
+    // native whose shared state is thread-safe.
+    boolean workerSafe(Stmt.ParallelFor loop, Interpreter interpreter) {
+        List<Expr.Variable> reached = callees.computeIfAbsent(loop, stmt -> walkLoop((Stmt.ParallelFor) stmt));
+        if (reached == IMPURE) return false;
+        Set<Stmt.Function> checked = Collections.newSetFromMap(new IdentityHashMap<>());
+        Map<String, Object> globals = interpreter.globals.values();
+        for (Expr.Variable callee : reached) {
+            if (interpreter.resolution().depthOf(callee) != null) return false;
+            if (!globals.containsKey(callee.name.lexeme)) return false;
+            if (!isPure(globals.get(callee.name.lexeme), interpreter, checked, SHARED_NATIVES)) return false;
+        }
+        return true;
+    }
+
+    private boolean isPure(Object callee, Interpreter interpreter, Set<Stmt.Function> checked, Set<String> natives) {
+        if (callee instanceof LoxFunction) {
+            LoxFunction function = (LoxFunction) callee;
+            if (!checked.add(function.declaration())) return true;
+            List<Expr.Variable> reached = callees.computeIfAbsent(function.declaration(),
+                    declaration -> walkBody(((Stmt.Function) declaration).params, ((Stmt.Function) declaration).body));
+            if (reached == IMPURE) return false;
+            for (Expr.Variable next : reached) {
+                // Only globals can be looked up without the caller's environment
+                if (function.resolution().depthOf(next) != null) return false;
+                Map<String, Object> globals = interpreter.globals.values();
+                if (!globals.containsKey(next.name.lexeme)) return false;
+                if (!isPure(globals.get(next.name.lexeme), interpreter, checked, natives)) return false;
+            }
+            return true;
+        }
+        for (String name : natives) {
+            if (interpreter.natives.get(name) == callee) return true;
+        }
+        return false;
+    }
+
+    private static List<Expr.Variable> walkBody(List<Token> params, List<Stmt> body) {
+        Walk walk = new Walk(true);
+        for (Token param : params) walk.declare(param);
+        for (Stmt statement : body) {
+            if (!statement.accept(walk)) return IMPURE;
+        }
+        return walk.callees;
+    }
+
+    private static List<Expr.Variable> walkLoop(Stmt.ParallelFor loop) {
+        Walk walk = new Walk(true);
+        walk.loopBody = true;
+        for (Expr.Variable target : loop.targets) walk.declare(target.name);
+        walk.declare(loop.name);
+        return loop.body.accept(walk) ? walk.callees : IMPURE;
+    }
+
+    private static List<Expr.Variable> walkOperand(Expr operand) {
+        Walk walk = new Walk(false);
+        return operand.accept(walk) ? walk.callees : IMPURE;
+    }
+
+    // true for nodes without effects besides calls, which are collected
+    private static class Walk implements Expr.Visitor<Boolean>, Stmt.Visitor<Boolean> {
+        private final List<Expr.Variable> callees = new ArrayList<>();
+        // Variables of the function being walked, mapped to true for
+        // functions walked in place; null for an operand, which may not
+        // assign at all
+        private final Deque<Map<String, Boolean>> scopes;
+        // Walking a parallel for body: prints are fine, and functions and
+        // lambdas declared in it are walked where they are declared
+        private boolean loopBody = false;
+
+        Walk(boolean function) {
+            this.scopes = function ? new ArrayDeque<>() : null;
+            if (function) scopes.push(new HashMap<>());
+        }
+
+        void declare(Token name) {
+            if (scopes != null) scopes.peek().put(name.lexeme, false);
+        }
+
+        private boolean isLocal(Token name) {
+            return scopes != null && lookUp(name) != null;
+        }
+
+        private Boolean lookUp(Token name) {
+            for (Map<String, Boolean> scope : scopes) {
+                Boolean walked = scope.get(name.lexeme);
+                if (walked != null) return walked;
+            }
+            return null;
+        }
+
+        private boolean walkNested(List<Token> params, List<Stmt> body) {
+            scopes.push(new HashMap<>());
+            try {
+                for (Token param : params) declare(param);
+                for (Stmt statement : body) {
+                    if (!statement.accept(this)) return false;
+                }
+                return true;
+            } finally {
+                scopes.pop();
+            }
+        }
+
+        private boolean all(List<? extends Expr> exprs) {
+            for (Expr expr : exprs) {
+                if (!expr.accept(this)) return false;
+            }
+            return true;
+        }
+
+        private boolean optional(Expr expr) {
+            return expr == null || expr.accept(this);
+        }
+
+        private boolean optional(Stmt stmt) {
+            return stmt == null || stmt.accept(this);
+        }
+
+        @Override
+        public Boolean visitBinaryExpr(Expr.Binary expr) {
+            return expr.left.accept(this) && expr.right.accept(this);
+        }
+
+        @Override
+        public Boolean visitCallExpr(Expr.Call expr) {
+            if (!(expr.callee instanceof Expr.Variable)) return false;
+            Expr.Variable callee = (Expr.Variable) expr.callee;
+            if (!loopBody || !Boolean.TRUE.equals(lookUp(callee.name))) callees.add(callee);
+            return all(expr.arguments);
+        }
+
+        @Override
+        public Boolean visitGetExpr(Expr.Get expr) {
+            // Could run a getter
+            return false;
+        }
+
+        @Override
+        public Boolean visitThisExpr(Expr.This expr) {
+            return true;
+        }
+
+        @Override
+        public Boolean visitSuperExpr(Expr.Super expr) {
+            return true;
+        }
+
+        @Override
+        public Boolean visitSetExpr(Expr.Set expr) {
+            return false;
+        }
+
+        @Override
+        public Boolean visitLambdaExpr(Expr.Lambda expr) {
+            // Only captures; calling it is a call by a local name, which fails
+            return !loopBody || walkNested(expr.params, expr.body);
+        }
+
+        @Override
+        public Boolean visitGroupingExpr(Expr.Grouping expr) {
+            return expr.expr.accept(this);
+        }
+
+        @Override
+        public Boolean visitLiteralExpr(Expr.Literal expr) {
+            return true;
+        }
+
+        @Override
+        public Boolean visitUnaryExpr(Expr.Unary expr) {
+            return expr.right.accept(this);
+        }
+
+        @Override
+        public Boolean visitTernaryExpr(Expr.Ternary expr) {
+            return expr.cond.accept(this) && expr.left.accept(this) && expr.right.accept(this);
+        }
+
+        @Override
+        public Boolean visitVariableExpr(Expr.Variable expr) {
+            return true;
+        }
+
+        @Override
+        public Boolean visitAssignExpr(Expr.Assign expr) {
+            return isLocal(expr.name) && expr.value.accept(this);
+        }
+
+        @Override
+        public Boolean visitLogicalExpr(Expr.Logical expr) {
+            return expr.left.accept(this) && expr.right.accept(this);
+        }
+
+        @Override
+        public Boolean visitAsyncExpr(Expr.Async expr) {
+            // The task runs whenever it likes
+            return false;
+        }
+
+        @Override
+        public Boolean visitAwaitExpr(Expr.Await expr) {
+            return false;
+        }
+
+        @Override
+        public Boolean visitExpressionStmt(Stmt.Expression stmt) {
+            return stmt.expression.accept(this);
+        }
+
+        @Override
+        public Boolean visitFunctionStmt(Stmt.Function stmt) {
+            if (!loopBody) {
+                declare(stmt.name);
+                return true;
+            }
+            scopes.peek().put(stmt.name.lexeme, true);
+            return walkNested(stmt.params, stmt.body);
+        }
+
+        @Override
+        public Boolean visitReturnStmt(Stmt.Return stmt) {
+            return optional(stmt.value);
+        }
+
+        @Override
+        public Boolean visitPrintStmt(Stmt.Print stmt) {
+            return loopBody && stmt.expression.accept(this);
+        }
+
+        @Override
+        public Boolean visitVarStmt(Stmt.Var stmt) {
+            declare(stmt.name);
+            return optional(stmt.initializer);
+        }
+
+        @Override
+        public Boolean visitBlockStmt(Stmt.Block stmt) {
+            scopes.push(new HashMap<>());
+            try {
+                for (Stmt statement : stmt.statements) {
+                    if (!statement.accept(this)) return false;
+                }
+                return true;
+            } finally {
+                scopes.pop();
+            }
+        }
+
+        @Override
+        public Boolean visitClassStmt(Stmt.Class stmt) {
+            return false;
+        }
+
+        @Override
+        public Boolean visitReplStmt(Stmt.Repl stmt) {
+            return false;
+        }
+
+        @Override
+        public Boolean visitIfStmt(Stmt.If stmt) {
+            return stmt.cond.accept(this) && optional(stmt.thenBranch) && optional(stmt.elseBranch);
+        }
+
+        @Override
+        public Boolean visitWhileStmt(Stmt.While stmt) {
+            return stmt.cond.accept(this) && optional(stmt.loop) && optional(stmt.inc);
+        }
+
+        @Override
+        public Boolean visitLogicStmt(Stmt.Logic stmt) {
+            return true;
+        }
+
+        @Override
+        public Boolean visitParallelForStmt(Stmt.ParallelFor stmt) {
+            if (!loopBody || !stmt.lower.accept(this) || !stmt.upper.accept(this) || !stmt.step.accept(this)) {
+                return false;
+            }
+            scopes.push(new HashMap<>());
+            try {
+                for (Expr.Variable target : stmt.targets) declare(target.name);
+                declare(stmt.name);
+                return stmt.body.accept(this);
+            } finally {
+                scopes.pop();
+            }
+        }
+
+        @Override
+        public Boolean visitProbeStmt(Stmt.Probe stmt) {
+            return stmt.stmt.accept(this);
+        }
+    }
+
+}
@@ -5,13 +5,14 @@ import exceptions.InterpreterError;
 import exceptions.RuntimeError;
 import model.Token;
 
-import java.util.HashMap;
 import java.util.Map;
 
 public class Environment {
 
     final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    private Map<String, Object> values = SlotTable.newValueMap();
+    // See Sharing; only ever set under -Djlox.objects=concurrent
+    private boolean shared = false;
 
     @Override
     public String toString() {
@@ -24,18 +25,22 @@ public class Environment {
 
     public Environment() {
         enclosing = null;
+        if (RuntimeStats.enabled) RuntimeStats.ENVIRONMENTS.increment();
     }
 
     public Environment(Environment enclosing) {
         this.enclosing = enclosing;
+        if (RuntimeStats.enabled) RuntimeStats.ENVIRONMENTS.increment();
     }
 
     public void define(String name, Object value) {
+        if (Sharing.ENABLED && shared) Sharing.publish(value);
         values.put(name, value);
     }
 
     public void assign(Token name, Object value) {
         if (values.containsKey(name.lexeme)) {
+            if (Sharing.ENABLED && shared) Sharing.publish(value);
             values.put(name.lexeme, value);
             return;
         }
@@ -66,7 +71,36 @@ public class Environment {
                 "Undefined variable '" + name.lexeme + "'.");
     }
 
-    private Environment ancestor(int distance) {
+    Map<String, Object> values() {
+        return values;
+    }
+
+    // false if it already was
+    boolean share() {
+        if (shared) return false;
+        values = new SharedValues(values);
+        shared = true;
+        return true;
+    }
+
+    // A number's NaN-boxed bits under -Djlox.values=nanbox.  Anything else,
+    // including a missing or shared variable, gives NanBox.NIL.
+    long numberBits(String name) {
+        return values instanceof SlotTable ? ((SlotTable) values).bits(name) : NanBox.NIL;
+    }
+
+    // false when the slow path has to do it: no slot table, or no such variable
+    boolean assignNumber(String name, double value) {
+        return values instanceof SlotTable && ((SlotTable) values).assignNumber(name, value);
+    }
+
+    boolean defineNumber(String name, double value) {
+        if (!(values instanceof SlotTable)) return false;
+        ((SlotTable) values).defineNumber(name, value);
+        return true;
+    }
+
+    Environment ancestor(int distance) {
         Environment environment = this;
         for (int i = 0; i < distance; i ++) {
             if (environment == null) {
@@ -82,7 +116,9 @@ public class Environment {
     }
 
     public void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+        Environment environment = ancestor(distance);
+        if (Sharing.ENABLED && environment.shared) Sharing.publish(value);
+        environment.values.put(name.lexeme, value);
     }
 
 }
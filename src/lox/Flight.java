@@ -0,0 +1,84 @@
+package lox;
+
+import exceptions.RuntimeError;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight Recorder events for Lox code, under -Djlox.jfr=true.  Otherwise
+ * {@link #ENABLED} is a false constant and the JIT drops every hook with the
+ * branch that guards it.  When enabled, a recording still decides which
+ * events it takes and their thresholds; Java stack traces are left out since
+ * they only show the interpreter.
+ */
+class Flight {
+
+    static final boolean ENABLED = Boolean.getBoolean("jlox.jfr");
+
+    private Flight() {
+    }
+
+    @Name("jlox.Call")
+    @Label("Lox Call")
+    @Description("A call to a Lox function or method, including its callees")
+    @Category("Lox")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static class Call extends Event {
+        @Label("Function")
+        String function;
+    }
+
+    @Name("jlox.Instantiation")
+    @Label("Lox Instantiation")
+    @Description("A new instance, including its initializer")
+    @Category("Lox")
+    @StackTrace(false)
+    static class Instantiation extends Event {
+        @Label("Class")
+        String className;
+    }
+
+    @Name("jlox.RuntimeError")
+    @Label("Lox Runtime Error")
+    @Category("Lox")
+    @StackTrace(false)
+    static class Error extends Event {
+        @Label("Message")
+        String message;
+
+        @Label("Line")
+        int line;
+    }
+
+    @Name("jlox.Phase")
+    @Label("Lox Compile Phase")
+    @Description("Parsing or resolving a script")
+    @Category("Lox")
+    @StackTrace(false)
+    static class Phase extends Event {
+        @Label("Phase")
+        String phase;
+    }
+
+    static void error(RuntimeError error) {
+        Error event = new Error();
+        if (!event.isEnabled()) return;
+        event.message = error.getMessage();
+        event.line = error.token == null ? 0 : error.token.line;
+        event.commit();
+    }
+
+    static Phase phase(String phase) {
+        Phase event = new Phase();
+        event.phase = phase;
+        event.begin();
+        return event;
+    }
+
+}
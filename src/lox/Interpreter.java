@@ -4,6 +4,7 @@ import constant.ClassConstant;
 import constant.FunctionType;
 import constant.LoopFlag;
 import constant.VariableValue;
+import exceptions.BudgetExceededError;
 import exceptions.InterpreterError;
 import exceptions.Return;
 import exceptions.RuntimeError;
@@ -16,38 +17,185 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 public class Interpreter implements Expr.Visitor<Object>,
                                     Stmt.Visitor<Void> {
 
-    final Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    final Environment globals;
+    private Environment environment;
+    private final Reporter reporter;
+    private Resolution resolution = new Resolution();
+
+    // Native functions by global name, so a Snapshot can refer to them
+    final Map<String, LoxCallable> natives;
 
     private LoopFlag loopFlag = LoopFlag.NONE;
 
+    // Set when commas may evaluate their operands concurrently
+    private EffectAnalyzer effects;
+    // Checks what parallel for bodies call; only set on the plain object model
+    private final EffectAnalyzer loopEffects;
+    // A fork evaluates one comma operand and never forks again itself
+    private final boolean forked;
+
+    // Counts down to the next safepoint; see tick()
+    private int ticks = Integer.MAX_VALUE;
+    // What ticks last counted down from
+    private int interval = Integer.MAX_VALUE;
+    // Environments and instances made since the last safepoint
+    private int allocations = 0;
+    // Forks run unscheduled, since they hold no slot of their own
+    private Scheduler scheduler;
+    // Usage against a Budget, shared with forks; null when unlimited
+    private Budget.Meter meter;
+    // This interpreter's shadow stack under --profile; null otherwise
+    private Profiler.Stack profile;
+    // Line hits under --coverage, shared with forks; null otherwise
+    private Coverage coverage;
 
-    public Interpreter() {
-        globals.define("clock", new LoxCallable() {
-            @Override
-            public int arity() {
-                return 0;
-            }
 
+    public Interpreter() {
+        this(Reporter.console());
+    }
+
+    public Interpreter(Reporter reporter) {
+        this.reporter = reporter;
+        this.globals = new Environment();
+        if (Sharing.ENABLED) globals.share();
+        this.environment = globals;
+        this.natives = new HashMap<>();
+        this.forked = false;
+        this.loopEffects = Sharing.ENABLED ? null : new EffectAnalyzer();
+        defineNative("clock", new NativeFunction(0) {
             @Override
             public Object call(Interpreter interpreter, List<Object> arguments) {
                 return (double)System.currentTimeMillis() / 1000.0;
             }
-
+        });
+        defineNative("sleep", new NativeFunction(1) {
+            // Parks the task; on a virtual thread this frees the carrier
             @Override
-            public String toString() {
-                return "<native fn>";
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                if (arguments.get(0) instanceof Double) {
+                    long nanos = TimeUnit.MILLISECONDS.toNanos((long) (double) arguments.get(0));
+                    long limit = interpreter.waitLimit();
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(Math.min(nanos, limit));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    // Woken by the deadline rather than the sleep running out
+                    if (nanos > limit) interpreter.waitLimit();
+                }
+                return null;
             }
         });
+        LoxChannel.defineNatives(this);
+    }
+
+    // Shares everything with parent except the execution state, which
+    // starts at parent's current environment.  Used for comma operands and
+    // async tasks.
+    private Interpreter(Interpreter parent) {
+        this.reporter = parent.reporter;
+        this.globals = parent.globals;
+        this.environment = parent.environment;
+        this.natives = parent.natives;
+        this.resolution = parent.resolution;
+        this.effects = parent.effects;
+        this.loopEffects = parent.loopEffects;
+        this.forked = true;
+        this.meter = parent.meter;
+        this.coverage = parent.coverage;
+        if (parent.profile != null) this.profile = parent.profile.profiler().newStack("<task>");
+        resetTicks();
+    }
+
+    // Everything the fork can reach through its environment is published
+    Interpreter fork() {
+        Sharing.publish(environment);
+        return new Interpreter(this);
+    }
+
+    // Called at loop back-edges and function entries
+    void tick() {
+        if (--ticks <= 0) safepoint();
+    }
+
+    void allocated() {
+        allocations++;
+    }
+
+    // Without a scheduler or a budget this runs once every 2^31 ticks
+    private void safepoint() {
+        try {
+            if (meter != null) {
+                int made = allocations;
+                allocations = 0;
+                meter.charge(interval, made);
+            }
+        } finally {
+            resetTicks();
+        }
+        if (scheduler != null) scheduler.yield();
+    }
+
+    // How long a blocking native may wait, in nanoseconds; throws once --timeout has passed
+    long waitLimit() {
+        return meter == null ? Long.MAX_VALUE : meter.remaining();
+    }
+
+    private void resetTicks() {
+        interval = scheduler == null ? Integer.MAX_VALUE : scheduler.slice();
+        if (meter != null) interval = Math.min(interval, meter.interval());
+        ticks = interval;
+    }
+
+    void schedule(Scheduler scheduler) {
+        this.scheduler = scheduler;
+        resetTicks();
+    }
+
+    void profile(Profiler profiler) {
+        if (profile != null) profile.close();
+        profile = profiler == null ? null : profiler.newStack("<script>");
+    }
+
+    // Called by a fork's owner once the fork's work is done
+    void finished() {
+        if (profile != null) profile.close();
+        profile = null;
+    }
+
+    Profiler.Stack profile() {
+        return profile;
     }
 
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
+    void cover(Coverage coverage) {
+        this.coverage = coverage;
+    }
+
+    // Starts counting against budget from zero; null lifts all limits
+    void limit(Budget budget) {
+        meter = budget == null || budget.isUnlimited() ? null : budget.new Meter();
+        allocations = 0;
+        resetTicks();
+    }
+
+    void enableParallelComma() {
+        effects = new EffectAnalyzer();
+    }
+
+    void defineNative(String name, LoxCallable function) {
+        natives.put(name, function);
+        globals.define(name, function);
+    }
+
+    Object lookUpVariable(Token name, Expr expr) {
+        Integer distance = resolution.depthOf(expr);
         if (distance != null) {
             return environment.getAt(distance, name.lexeme);
         } else {
@@ -56,11 +204,169 @@ public class Interpreter implements Expr.Visitor<Object>,
     }
 
     public void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+        resolution.resolve(expr, depth);
+    }
+
+    Resolution resolution() {
+        return resolution;
+    }
+
+    // Functions run against the resolution of the program that declared them
+    Resolution swapResolution(Resolution next) {
+        Resolution previous = resolution;
+        resolution = next;
+        return previous;
+    }
+
+    Reporter reporter() {
+        return reporter;
+    }
+
+    private boolean isArithmetic(Expr expr) {
+        if (!(expr instanceof Expr.Binary)) return false;
+        TokenType type = ((Expr.Binary) expr).operator.type;
+        return type == TokenType.MINUS || type == TokenType.STAR || type == TokenType.SLASH;
+    }
+
+    // Folds a tree of '-', '*' and '/' into a primitive so that only the
+    // root result gets boxed.  Operands are still evaluated left to right
+    // before the type check, exactly like the boxed path.
+    private double evaluateArithmetic(Expr.Binary expr) {
+        double left = 0;
+        boolean leftIsNumber = true;
+        if (isArithmetic(expr.left)) {
+            left = evaluateArithmetic((Expr.Binary) expr.left);
+        } else {
+            Object value = evaluate(expr.left);
+            leftIsNumber = value instanceof Double;
+            if (leftIsNumber) left = (double) value;
+        }
+
+        double right = 0;
+        boolean rightIsNumber = true;
+        if (isArithmetic(expr.right)) {
+            right = evaluateArithmetic((Expr.Binary) expr.right);
+        } else {
+            Object value = evaluate(expr.right);
+            rightIsNumber = value instanceof Double;
+            if (rightIsNumber) right = (double) value;
+        }
+
+        if (!leftIsNumber || !rightIsNumber) {
+            throw new RuntimeError(expr.operator, "Operands must be numbers.");
+        }
+        switch (expr.operator.type) {
+            case MINUS:
+                return left - right;
+            case SLASH:
+                if (Math.abs(right) < 1e-10) {
+                    throw new RuntimeError(expr.operator,
+                            "You cannot divide a number by zero.");
+                }
+                return left / right;
+            default:
+                return left * right;
+        }
+    }
+
+    // Under -Djlox.values=nanbox, the bits of a number made from literals,
+    // variables, grouping, negation and + - * /, read and computed without
+    // boxing; NanBox.NIL if it isn't one.  These expressions have no side
+    // effects, so on NIL the caller just evaluates normally, which also
+    // reports any error.
+    private long numberBits(Expr expr) {
+        if (expr instanceof Expr.Literal) {
+            Object value = ((Expr.Literal) expr).value;
+            return value instanceof Double ? NanBox.number((double) value) : NanBox.NIL;
+        }
+        if (expr instanceof Expr.Variable) {
+            return scopeOf(expr).numberBits(((Expr.Variable) expr).name.lexeme);
+        }
+        if (expr instanceof Expr.Grouping) return numberBits(((Expr.Grouping) expr).expr);
+        if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary) expr;
+            if (unary.operator.type != TokenType.MINUS) return NanBox.NIL;
+            long right = numberBits(unary.right);
+            return NanBox.isNumber(right) ? NanBox.number(-NanBox.asNumber(right)) : NanBox.NIL;
+        }
+        if (!(expr instanceof Expr.Binary)) return NanBox.NIL;
+
+        Expr.Binary binary = (Expr.Binary) expr;
+        TokenType type = binary.operator.type;
+        if (type != TokenType.PLUS && !isArithmetic(binary)) return NanBox.NIL;
+        long leftBits = numberBits(binary.left);
+        if (!NanBox.isNumber(leftBits)) return NanBox.NIL;
+        long rightBits = numberBits(binary.right);
+        if (!NanBox.isNumber(rightBits)) return NanBox.NIL;
+        double left = NanBox.asNumber(leftBits);
+        double right = NanBox.asNumber(rightBits);
+        switch (type) {
+            case PLUS:
+                return NanBox.number(left + right);
+            case MINUS:
+                return NanBox.number(left - right);
+            case STAR:
+                return NanBox.number(left * right);
+            default:
+                if (Math.abs(right) < 1e-10) return NanBox.NIL;
+                return NanBox.number(left / right);
+        }
+    }
+
+    private Environment scopeOf(Expr expr) {
+        Integer distance = resolution.depthOf(expr);
+        return distance != null ? environment.ancestor(distance) : globals;
+    }
+
+    private static boolean isComparison(TokenType type) {
+        return type == TokenType.GREATER || type == TokenType.GREATER_EQUAL
+                || type == TokenType.LESS || type == TokenType.LESS_EQUAL;
+    }
+
+    // Comparisons and numeric results without boxing their operands
+    private Object visitNumberBinary(Expr.Binary expr) {
+        TokenType type = expr.operator.type;
+        if (!isComparison(type)) {
+            long bits = numberBits(expr);
+            return NanBox.isNumber(bits) ? NanBox.asNumber(bits) : null;
+        }
+        long leftBits = numberBits(expr.left);
+        if (!NanBox.isNumber(leftBits)) return null;
+        long rightBits = numberBits(expr.right);
+        if (!NanBox.isNumber(rightBits)) return null;
+        double left = NanBox.asNumber(leftBits);
+        double right = NanBox.asNumber(rightBits);
+        switch (type) {
+            case GREATER:
+                return left > right;
+            case GREATER_EQUAL:
+                return left >= right;
+            case LESS:
+                return left < right;
+            default:
+                return left <= right;
+        }
+    }
+
+    // Stores a number into a slot without boxing it; false if the slow path has to
+    private boolean assignNumber(Expr.Assign expr) {
+        long bits = numberBits(expr.value);
+        return NanBox.isNumber(bits) && scopeOf(expr).assignNumber(expr.name.lexeme, NanBox.asNumber(bits));
     }
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
+        if (SlotTable.ENABLED) {
+            Object value = visitNumberBinary(expr);
+            if (value != null) return value;
+        }
+        if (isArithmetic(expr)) {
+            return evaluateArithmetic(expr);
+        }
+        if (expr.operator.type == TokenType.COMMA && effects != null && !forked
+                && effects.independent(expr.left, expr.right, this)) {
+            return evaluateConcurrently(expr);
+        }
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
         switch (expr.operator.type) {
@@ -82,6 +388,7 @@ public class Interpreter implements Expr.Visitor<Object>,
                     return (double)left + (double)right;
                 }
                 if (left instanceof String || right instanceof String) {
+                    if (RuntimeStats.enabled) RuntimeStats.CONCATENATIONS.increment();
                     return stringify(left) + stringify(right);
                 }
                 throw new RuntimeError(expr.operator,
@@ -108,6 +415,34 @@ public class Interpreter implements Expr.Visitor<Object>,
         return null;
     }
 
+    // The right operand runs on a fork while this thread does the left one.
+    // A left error wins, as it would in order.
+    private Object evaluateConcurrently(Expr.Binary expr) {
+        Interpreter fork = fork();
+        CompletableFuture<Object> right = CompletableFuture.supplyAsync(() -> {
+            try {
+                return fork.evaluate(expr.right);
+            } finally {
+                fork.finished();
+            }
+        }, LoxFuture.TASKS);
+        try {
+            evaluate(expr.left);
+        } catch (Throwable error) {
+            // Wait out the right side, ignoring how it ends, so the fork
+            // never outlives this expression; the left error wins
+            right.handle((value, ignored) -> null).join();
+            throw error;
+        }
+        try {
+            return right.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw e;
+        }
+    }
+
     @Override
     public Object visitCallExpr(Expr.Call expr) {
         Object callee = evaluate(expr.callee);
@@ -117,17 +452,52 @@ public class Interpreter implements Expr.Visitor<Object>,
             arguments.add(evaluate(argument));
         }
 
+        LoxCallable func = checkCall(callee, arguments, expr.paren);
+        try {
+            return func.call(this, arguments);
+        } catch (RuntimeError error) {
+            if (error.token != null || error instanceof BudgetExceededError) throw error;
+            throw new RuntimeError(expr.paren, error.getMessage());
+        }
+    }
+
+    private LoxCallable checkCall(Object callee, List<Object> arguments, Token paren) {
         if (!(callee instanceof LoxCallable)) {
-            throw new RuntimeError(expr.paren,
+            throw new RuntimeError(paren,
                     "Can only call functions and classes.");
         }
         LoxCallable func = (LoxCallable)callee;
-        if (arguments.size() != func.arity()) {
-            throw new RuntimeError(expr.paren, "Expected " +
+        if (func.arity() != LoxCallable.VARIADIC && arguments.size() != func.arity()) {
+            throw new RuntimeError(paren, "Expected " +
                     func.arity() + " arguments but got " +
                     arguments.size() + ".");
         }
-        return func.call(this, arguments);
+        return func;
+    }
+
+    @Override
+    public Object visitAsyncExpr(Expr.Async expr) {
+        // Callee and arguments are evaluated here, only the call itself runs on the task
+        Object callee = evaluate(expr.call.callee);
+
+        List<Object> arguments = new ArrayList<>();
+        for (Expr argument: expr.call.arguments) {
+            arguments.add(evaluate(argument));
+        }
+
+        LoxCallable func = checkCall(callee, arguments, expr.call.paren);
+        Sharing.publish(callee);
+        for (Object argument : arguments) Sharing.publish(argument);
+        return LoxFuture.start(fork(), func, arguments, expr.call.paren);
+    }
+
+    @Override
+    public Object visitAwaitExpr(Expr.Await expr) {
+        Object value = evaluate(expr.value);
+        if (value instanceof LoxFuture) {
+            return ((LoxFuture) value).join(this);
+        }
+        return value;
     }
 
     @Override
@@ -152,7 +522,7 @@ public class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int distance = locals.get(expr);
+        int distance = resolution.depthOf(expr);
         LoxClass superclass = (LoxClass)environment.getAt(distance, ClassConstant.SUPER);
         LoxInstance object = (LoxInstance)environment.getAt(distance - 1, ClassConstant.THIS);
         LoxFunction method = superclass.findMethod(expr.method.lexeme);
@@ -175,7 +545,7 @@ public class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Object visitLambdaExpr(Expr.Lambda expr) {
-        if (expr.body.size() == 0) {
+        if (expr.body.isEmpty()) {
             throw new RuntimeError(expr.name, "It's not allowed to define a lambda function without" +
                     " any statements.");
         }
@@ -183,7 +553,7 @@ public class Interpreter implements Expr.Visitor<Object>,
                 expr.name,
                 expr.params,
                 expr.body);
-        return new LoxFunction(lambdaFunction, environment, FunctionType.LAMBDA);
+        return new LoxFunction(lambdaFunction, environment, FunctionType.LAMBDA, resolution);
     }
 
     @Override
@@ -228,15 +598,18 @@ public class Interpreter implements Expr.Visitor<Object>,
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
-        Integer distance = locals.get(expr);
+        assignVariable(expr, expr.name, value);
+        return value;
+    }
+
+    private void assignVariable(Expr expr, Token name, Object value) {
+        Integer distance = resolution.depthOf(expr);
 
         if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
+            environment.assignAt(distance, name, value);
         } else {
-            globals.assign(expr.name, value);
+            globals.assign(name, value);
         }
-
-        return value;
     }
 
     @Override
@@ -279,13 +652,50 @@ public class Interpreter implements Expr.Visitor<Object>,
         throw new RuntimeError(operator, "Operands must be numbers.");
     }
 
+    public void interpret(LoxProgram program) {
+        try {
+            execute(program);
+        } catch (RuntimeError error) {
+            reporter.runtimeError(error);
+        }
+    }
+
+    // Like interpret, but a RuntimeError is left to the caller.  Returns
+    // the value of a trailing expression statement, if there is one; a
+    // REPL-style expression is returned instead of printed.
+    Object execute(LoxProgram program) {
+        resolution = program.resolution;
+        Object value = null;
+        for (Stmt statement : program.statements) {
+            if (statement instanceof Stmt.Expression) {
+                value = evaluate(((Stmt.Expression) statement).expression);
+            } else if (statement instanceof Stmt.Repl) {
+                value = evaluate(((Stmt.Repl) statement).expression);
+            } else {
+                execute(statement);
+                value = null;
+            }
+        }
+        return value;
+    }
+
+    // Calls a Lox function or class from Java
+    Object call(LoxCallable callee, List<Object> arguments) {
+        if (callee.arity() != LoxCallable.VARIADIC && arguments.size() != callee.arity()) {
+            throw new IllegalArgumentException("Expected " +
+                    callee.arity() + " arguments but got " +
+                    arguments.size() + ".");
+        }
+        return callee.call(this, arguments);
+    }
+
     public void interpret(List<Stmt> statements) {
         try {
             for (Stmt statement : statements) {
                 execute(statement);
             }
         } catch (RuntimeError error) {
-            Lox.runtimeError(error);
+            reporter.runtimeError(error);
         }
     }
 
@@ -322,13 +732,17 @@ public class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Void visitExpressionStmt(Stmt.Expression stmt) {
+        if (SlotTable.ENABLED && stmt.expression instanceof Expr.Assign
+                && assignNumber((Expr.Assign) stmt.expression)) {
+            return null;
+        }
         evaluate(stmt.expression);
         return null;
     }
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        LoxFunction function = new LoxFunction(stmt, environment, FunctionType.FUNCTION);
+        LoxFunction function = new LoxFunction(stmt, environment, FunctionType.FUNCTION, resolution);
         environment.define(stmt.name.lexeme, function);
         return null;
     }
@@ -338,18 +752,25 @@ public class Interpreter implements Expr.Visitor<Object>,
         Object value = null;
         if (stmt.value != null)
             value = evaluate(stmt.value);
+        if (RuntimeStats.enabled) RuntimeStats.RETURNS.increment();
         throw new Return(value);
     }
 
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        reporter.out().println(stringify(value));
         return null;
     }
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
+        if (SlotTable.ENABLED && stmt.initializer != null) {
+            long bits = numberBits(stmt.initializer);
+            if (NanBox.isNumber(bits) && environment.defineNumber(stmt.name.lexeme, NanBox.asNumber(bits))) {
+                return null;
+            }
+        }
         Object value = VariableValue.UNINIT;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
@@ -361,6 +782,7 @@ public class Interpreter implements Expr.Visitor<Object>,
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
         Environment environment = new Environment(this.environment);
+        allocated();
         executeBlock(stmt.statements, environment);
         return null;
     }
@@ -379,6 +801,7 @@ public class Interpreter implements Expr.Visitor<Object>,
 
         if (stmt.superclass != null) {
             environment = new Environment(environment);
+            allocated();
             environment.define(ClassConstant.SUPER, superclass);
         }
 
@@ -386,17 +809,17 @@ public class Interpreter implements Expr.Visitor<Object>,
         for (Stmt.Function method: stmt.methods) {
             FunctionType type = ClassConstant.INIT.equals(method.name.lexeme) ?
                     FunctionType.INITIALIZER : FunctionType.METHOD;
-            LoxFunction function = new LoxFunction(method, environment, type);
+            LoxFunction function = new LoxFunction(method, environment, type, resolution);
             methods.put(method.name.lexeme, function);
         }
         for (Stmt.Function method: stmt.statics) {
             FunctionType type = FunctionType.CLASS_STATIC;
-            LoxFunction function = new LoxFunction(method, environment, type);
+            LoxFunction function = new LoxFunction(method, environment, type, resolution);
             methods.put(method.name.lexeme, function);
         }
         for (Stmt.Function method: stmt.getters) {
             FunctionType type = FunctionType.GETTER;
-            LoxFunction function = new LoxFunction(method, environment, type);
+            LoxFunction function = new LoxFunction(method, environment, type, resolution);
             methods.put(method.name.lexeme, function);
         }
 
@@ -413,7 +836,7 @@ public class Interpreter implements Expr.Visitor<Object>,
     @Override
     public Void visitReplStmt(Stmt.Repl stmt) {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        reporter.out().println(stringify(value));
         return null;
     }
 
@@ -439,7 +862,47 @@ public class Interpreter implements Expr.Visitor<Object>,
             }
             if (stmt.inc != null)
                 execute(stmt.inc);
+            tick();
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitParallelForStmt(Stmt.ParallelFor stmt) {
+        double lower = loopBound(stmt.lower, stmt.keyword);
+        double upper = loopBound(stmt.upper, stmt.keyword);
+        double step = loopBound(stmt.step, stmt.keyword);
+        if (step <= 0) {
+            throw new RuntimeError(stmt.keyword, "The step of a parallel for must be positive.");
+        }
+        Object[] values = new Object[stmt.targets.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = evaluate(stmt.targets.get(i));
         }
+        if (loopEffects != null && !loopEffects.workerSafe(stmt, this)) {
+            throw new RuntimeError(stmt.keyword,
+                    "A parallel for may only call functions that write nothing shared unless -Djlox.objects=concurrent is set.");
+        }
+        values = new ParallelLoop(this, environment, stmt, lower, upper, step).run(values);
+        for (int i = 0; i < values.length; i++) {
+            Expr.Variable target = stmt.targets.get(i);
+            assignVariable(target, target.name, values[i]);
+        }
+        return null;
+    }
+
+    private double loopBound(Expr expr, Token keyword) {
+        Object value = evaluate(expr);
+        if (!(value instanceof Double)) {
+            throw new RuntimeError(keyword, "The bounds and step of a parallel for must be numbers.");
+        }
+        return (double) value;
+    }
+
+    @Override
+    public Void visitProbeStmt(Stmt.Probe stmt) {
+        if (coverage != null) coverage.hit(stmt.line);
+        execute(stmt.stmt);
         return null;
     }
 
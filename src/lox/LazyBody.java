@@ -0,0 +1,88 @@
+package lox;
+
+import constant.FunctionType;
+import exceptions.RuntimeError;
+import model.Stmt;
+import model.Token;
+import model.TokenStream;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * A function body that the {@link Parser} has only recognized, which
+ * builds no nodes.  The statements are parsed, and resolved against the
+ * scopes captured at declaration time, the first time anything reads the
+ * list.
+ */
+public class LazyBody extends AbstractList<Stmt> {
+
+    private final Token location;
+    private final Supplier<List<Stmt>> source;
+    private final boolean empty;
+
+    private Resolver resolver;
+    private List<Token> params;
+    private FunctionType type;
+
+    private volatile List<Stmt> statements;
+
+    LazyBody(TokenStream tokens, int from, int to, int nestLoop, Reporter reporter) {
+        this.location = tokens.get(from - 1);
+        this.empty = from == to;
+        this.source = () -> {
+            Parser parser = new Parser(new TokenRange(tokens, from, to), true, nestLoop, reporter).checked();
+            List<Stmt> parsed = parser.parse();
+            if (parser.hadError()) {
+                throw new RuntimeError(location, "Syntax error in function body.");
+            }
+            return parsed;
+        };
+    }
+
+    boolean isParsed() {
+        return statements != null;
+    }
+
+    // type == null keeps the enclosing function type, which is how lambdas resolve
+    void deferResolution(Resolver resolver, List<Token> params, FunctionType type) {
+        this.resolver = resolver;
+        this.params = params;
+        this.type = type;
+    }
+
+    private List<Stmt> force() {
+        List<Stmt> result = statements;
+        if (result != null) return result;
+        synchronized (this) {
+            if (statements != null) return statements;
+            List<Stmt> parsed = source.get();
+            if (resolver != null) {
+                if (!resolver.resolveDeferred(params, parsed, type)) {
+                    throw new RuntimeError(location, "Resolution error in function body.");
+                }
+                resolver = null;
+                params = null;
+            }
+            statements = parsed;
+            return parsed;
+        }
+    }
+
+    @Override
+    public Stmt get(int index) {
+        return force().get(index);
+    }
+
+    @Override
+    public int size() {
+        return force().size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return empty || force().isEmpty();
+    }
+
+}
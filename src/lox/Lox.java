@@ -1,92 +1,278 @@
 package lox;
 
-import exceptions.RuntimeError;
+import model.Expr;
+import model.FlatAst;
 import model.Stmt;
-import model.Token;
-import model.TokenType;
+import model.TokenStream;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
 
+/**
+ * One jlox run: the options it was started with, where its output goes,
+ * and its own interpreter.
+ */
 public class Lox {
 
-    private static final Interpreter interpreter = new Interpreter();
-    private static boolean hadError = false;
-    private static boolean hadRuntimeError = false;
+    private final LoxOptions options;
+    private final Reporter reporter;
+    private final InputStream stdin;
+    private final Interpreter interpreter;
+
+    // Compiled scripts shared with other runs, null outside a LoxServer
+    private final ModuleCache modules;
+
+    // Line hits of the script under --coverage, null otherwise
+    private Coverage coverage;
+
+    public Lox(LoxOptions options, Reporter reporter) {
+        this(options, reporter, System.in, null);
+    }
+
+    Lox(LoxOptions options, Reporter reporter, InputStream stdin, ModuleCache modules) {
+        this.options = options;
+        this.reporter = reporter;
+        this.stdin = stdin;
+        this.modules = modules;
+        this.interpreter = new Interpreter(reporter);
+        if (options.parallelComma) interpreter.enableParallelComma();
+    }
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
+        LoxOptions options;
+        try {
+            options = LoxOptions.fromArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println(LoxOptions.USAGE);
             System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
-        } else {
+            return;
+        }
+        MetricsExporter exporter = null;
+        if (options.metrics != 0) {
+            exporter = new PrometheusExporter(options.metrics);
+            exporter.start(RuntimeStats.enable());
+        }
+        if (options.serve != null) {
+            new LoxServer(options.serve, new Scheduler(options.workers, options.slice)).serve();
+            return;
+        }
+        int status;
+        try {
+            status = new Lox(options, Reporter.console()).start();
+        } finally {
+            if (exporter != null) exporter.stop();
+        }
+        if (status != 0) System.exit(status);
+    }
+
+    Interpreter interpreter() {
+        return interpreter;
+    }
+
+    // Loads the image, then runs the script or the prompt; returns the exit status
+    int start() throws IOException {
+        if (options.image != null) {
+            try {
+                Snapshot.read(interpreter, options.image);
+            } catch (IOException e) {
+                reporter.err().println("Can't load image: " + e.getMessage());
+                return 66;
+            }
+        }
+        interpreter.limit(new Budget(options.maxTicks, options.maxAllocations, options.timeout));
+        Profiler profiler = options.profile == null ? null : new Profiler(options.profileSampling);
+        interpreter.profile(profiler);
+        try {
+            if (options.script != null) {
+                return runFile(options.script);
+            }
             runPrompt();
+            return 0;
+        } finally {
+            if (profiler != null) {
+                interpreter.profile(null);
+                try {
+                    profiler.finish(reporter.err(), options.profile);
+                } catch (IOException e) {
+                    reporter.err().println("Can't write profile: " + e.getMessage());
+                }
+            }
         }
     }
 
-    private static void run(String srcCode) {
-        Scanner scanner = new Scanner(srcCode);
-        List<Token> tokens = scanner.scanTokens();
-        Parser parser = new Parser(tokens);
+    private void run(String srcCode) {
+        run(scan(srcCode));
+    }
 
-        List<Stmt> statements = parser.parse();
-        if (hadError) return;
+    private TokenStream scan(String srcCode) {
+        Scanner scanner = new Scanner(srcCode, reporter);
+        if (options.bulkScan) scanner.useBulkScan();
+        TokenStream tokens;
+        if (options.compactTokens) {
+            tokens = scanner.scanTokenBuffer();
+        } else {
+            tokens = TokenStream.of(options.parallelScan ? scanner.scanTokensParallel() : scanner.scanTokens());
+        }
+        return tokens;
+    }
 
-        Resolver resolver = new Resolver(interpreter);
-        resolver.resolve(statements);
-        if (hadError) return;
+    private void run(TokenStream tokens) {
+        List<Stmt> statements = compile(tokens, interpreter.resolution());
+        if (statements == null) return;
 
         // System.out.println(new AstPrinter().print(expression));
         interpreter.interpret(statements);
     }
 
-    private static void runFile(String src) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(src));
-        run(new String(bytes, Charset.defaultCharset()));
-        if (hadError) System.exit(65);
-        if (hadRuntimeError) System.exit(70);
+    // Parses and resolves into resolution, returning null if there were errors
+    private List<Stmt> compile(TokenStream tokens, Resolution resolution) {
+        // Packing reads every body, so lazy parsing would gain nothing there
+        Parser parser = new Parser(tokens, options.lazyParse && !options.flatAst, reporter);
+        if (coverage != null) parser.instrument(coverage);
+
+        Flight.Phase parsing = Flight.ENABLED ? Flight.phase("parse") : null;
+        List<Stmt> statements = options.parallelParse ? parser.parseParallel() : parser.parse();
+        if (parsing != null) parsing.commit();
+        if (reporter.hadError()) return null;
+
+        Flight.Phase resolving = Flight.ENABLED ? Flight.phase("resolve") : null;
+        Resolution resolved = options.flatAst ? new Resolution() : resolution;
+        Resolver resolver = new Resolver(resolved, reporter);
+        resolver.resolve(statements);
+        if (resolving != null) resolving.commit();
+        if (reporter.hadError()) return null;
+
+        if (options.flatAst) return pack(statements, resolved, resolution);
+        return statements;
     }
 
-    private static void runPrompt() throws IOException {
-        InputStreamReader input = new InputStreamReader(System.in);
-        BufferedReader reader = new BufferedReader(input);
-        while (true) {
-            System.out.print(">>> ");
-            String line = reader.readLine();
-            if (line == null) break;
-            run(line);
-            hadError = false;
-        }
+    // Keeps only the packed program; nodes are rebuilt, and their depths
+    // moved into resolution, the first time the run reaches them
+    private static List<Stmt> pack(List<Stmt> statements, Resolution resolved, Resolution resolution) {
+        // The encoder reports nodes in post-order, so offsets come sorted
+        int[][] pairs = {new int[64], new int[64]};
+        int[] count = {0};
+        FlatAst flat = FlatAst.encode(statements, (node, offset) -> {
+            Integer depth = node instanceof Expr ? resolved.depthOf((Expr) node) : null;
+            if (depth == null) return;
+            if (count[0] == pairs[0].length) {
+                pairs[0] = Arrays.copyOf(pairs[0], count[0] * 2);
+                pairs[1] = Arrays.copyOf(pairs[1], count[0] * 2);
+            }
+            pairs[0][count[0]] = offset;
+            pairs[1][count[0]++] = depth;
+        });
+        int[] offsets = Arrays.copyOf(pairs[0], count[0]);
+        int[] depths = Arrays.copyOf(pairs[1], count[0]);
+        flat.onDecode((node, offset) -> {
+            if (!(node instanceof Expr)) return;
+            int at = Arrays.binarySearch(offsets, offset);
+            if (at >= 0) resolution.resolve((Expr) node, depths[at]);
+        });
+        return flat.statements();
     }
 
-    static void error(Token token, String message) {
-        if (token.type == TokenType.EOF) {
-            report(token.line, " at end", message);
+    // A script of "-" is read from stdin
+    private int runFile(String src) throws IOException {
+        if (options.coverage != null) {
+            // Probes go in as the script is parsed, so nothing may be parsed
+            // later or come already compiled
+            options.lazyParse = false;
+            options.cache = false;
+            coverage = new Coverage("-".equals(src) ? src : Paths.get(src).toAbsolutePath().normalize().toString());
+            interpreter.cover(coverage);
+        }
+        if (options.stream && !"-".equals(src)) {
+            // The token window can't be revisited, so lazy and parallel parsing are off here
+            options.lazyParse = false;
+            options.parallelParse = false;
+            run(new StreamingTokens(new Scanner(MappedSource.open(Paths.get(src)), reporter)));
         } else {
-            report(token.line, " at '" + token.lexeme + "'", message);
+            byte[] bytes = "-".equals(src) ? stdin.readAllBytes() : Files.readAllBytes(Paths.get(src));
+            if (options.cache && !"-".equals(src)) {
+                runCached(Paths.get(src), bytes);
+            } else if (modules != null && coverage == null) {
+                runModule(bytes);
+            } else {
+                run(new String(bytes, Charset.defaultCharset()));
+            }
+        }
+        if (coverage != null && !reporter.hadError()) {
+            try {
+                coverage.writeLcov(options.coverage);
+            } catch (IOException e) {
+                reporter.err().println("Can't write coverage: " + e.getMessage());
+                return 74;
+            }
+        }
+        if (reporter.hadError()) return 65;
+        if (reporter.hadRuntimeError()) return 70;
+        if (options.snapshot != null) {
+            try {
+                Snapshot.write(interpreter, options.snapshot);
+            } catch (IOException e) {
+                reporter.err().println("Can't write image: " + e.getMessage());
+                return 74;
+            }
         }
+        return 0;
     }
 
-    static void error(int line, String message) {
-        report(line, "", message);
+    private void runCached(Path path, byte[] bytes) {
+        ScriptCache cache = new ScriptCache(path, bytes, options.cacheDir);
+        Resolution resolution = interpreter.resolution();
+        List<Stmt> statements = cache.load(resolution);
+        if (statements == null) {
+            // The cache records resolver depths, so every body has to be resolved up front
+            options.lazyParse = false;
+            statements = compile(scan(new String(bytes, Charset.defaultCharset())), resolution);
+            if (statements == null) return;
+            cache.store(statements, resolution);
+        }
+        interpreter.interpret(statements);
+    }
+
+    private void runModule(byte[] bytes) {
+        String key = ScriptCache.hex(ScriptCache.sha256(bytes));
+        LoxProgram program = modules.get(key);
+        if (program == null) {
+            program = compileProgram(new String(bytes, Charset.defaultCharset()));
+            if (program == null) return;
+            modules.put(key, program);
+        }
+        interpreter.interpret(program);
     }
 
-    private static void report(int line, String where, String message) {
-        System.err.println(
-                "[line " + line + "] Error" + where + ": " + message);
-        hadError = true;
+    // A program with a resolution of its own, or null if there were errors.
+    // Others may run it, so nothing is left to parse or resolve later.
+    LoxProgram compileProgram(String srcCode) {
+        options.lazyParse = false;
+        Resolution resolution = new Resolution();
+        List<Stmt> statements = compile(scan(srcCode), resolution);
+        if (statements == null) return null;
+        return new LoxProgram(statements, resolution);
     }
 
-    static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() +
-                "\n[line " + error.token.line + "]");
-        hadRuntimeError = true;
+    private void runPrompt() throws IOException {
+        InputStreamReader input = new InputStreamReader(stdin);
+        BufferedReader reader = new BufferedReader(input);
+        while (true) {
+            reporter.out().print(">>> ");
+            reporter.out().flush();
+            String line = reader.readLine();
+            if (line == null) break;
+            run(line);
+            reporter.clearError();
+        }
     }
 
 }
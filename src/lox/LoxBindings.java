@@ -0,0 +1,59 @@
+package lox;
+
+import javax.script.Bindings;
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The globals of a {@link LoxContext} seen as JSR-223 {@link Bindings}.
+ * Java numbers are stored as the doubles Lox computes with.
+ */
+class LoxBindings extends AbstractMap<String, Object> implements Bindings {
+
+    final LoxContext context;
+
+    LoxBindings(LoxContext context) {
+        this.context = context;
+    }
+
+    static Object toLox(Object value) {
+        if (value instanceof Number && !(value instanceof Double)) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof Character) {
+            return value.toString();
+        }
+        return value;
+    }
+
+    @Override
+    public Object put(String name, Object value) {
+        if (name == null) throw new NullPointerException("Binding name is null.");
+        if (name.isEmpty()) throw new IllegalArgumentException("Binding name is empty.");
+        Object previous = context.get(name);
+        context.define(name, toLox(value));
+        return previous;
+    }
+
+    @Override
+    public Object get(Object name) {
+        return context.globals().get(name);
+    }
+
+    @Override
+    public boolean containsKey(Object name) {
+        return context.globals().containsKey(name);
+    }
+
+    @Override
+    public Object remove(Object name) {
+        return context.globals().remove(name);
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return context.globals().entrySet();
+    }
+
+}
@@ -3,6 +3,9 @@ package lox;
 import java.util.List;
 
 public interface LoxCallable {
+    // arity() of a function that takes any number of arguments
+    int VARIADIC = -1;
+
     int arity();
     Object call(Interpreter interpreter, List<Object> arguments);
 }
@@ -0,0 +1,223 @@
+package lox;
+
+import exceptions.RuntimeError;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A channel between tasks, for scripts that pass messages instead of
+ * sharing instances.  Values go through a lock-free queue; a bounded
+ * channel also holds a permit per free slot, so senders block while it is
+ * full.  Receiving from a closed, drained channel gives nil.  Blocked
+ * calls give up with the caller's --timeout.
+ */
+class LoxChannel {
+
+    // The queue can't hold null
+    private static final Object NIL = new Object();
+    // Stays at the head of a closed channel once the values before it are taken
+    private static final Object CLOSED = new Object();
+    private static final Object EMPTY = new Object();
+
+    // What select returns: the channel that was ready and the value taken from it
+    private static final LoxClass SELECTED = new LoxClass("Selected", null, new HashMap<>());
+
+    private final LinkedTransferQueue<Object> queue = new LinkedTransferQueue<>();
+    // Free slots; null when unbounded
+    private final Semaphore space;
+    // Threads blocked in select on this channel
+    private final ConcurrentLinkedQueue<Thread> selectors = new ConcurrentLinkedQueue<>();
+    // Senders share it to check closed and enqueue as one step; close takes it alone
+    private final ReentrantReadWriteLock closing = new ReentrantReadWriteLock();
+    private boolean closed = false;
+
+    LoxChannel(int capacity) {
+        this.space = capacity > 0 ? new Semaphore(capacity) : null;
+    }
+
+    void send(Object value, Interpreter sender) {
+        if (space != null) acquire(sender);
+        closing.readLock().lock();
+        try {
+            if (closed) throw new RuntimeError(null, "Can't send on a closed channel.");
+            Sharing.publish(value);
+            queue.offer(value == null ? NIL : value);
+        } finally {
+            closing.readLock().unlock();
+        }
+        wakeSelectors();
+    }
+
+    private void acquire(Interpreter sender) {
+        try {
+            while (!space.tryAcquire(sender.waitLimit(), TimeUnit.NANOSECONDS)) {
+                // waitLimit throws once the deadline has passed
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeError(null, "Interrupted while sending.");
+        }
+    }
+
+    Object receive(Interpreter receiver) {
+        Object value;
+        try {
+            do {
+                value = queue.poll(receiver.waitLimit(), TimeUnit.NANOSECONDS);
+            } while (value == null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeError(null, "Interrupted while receiving.");
+        }
+        return unwrap(value);
+    }
+
+    // EMPTY when nothing is waiting
+    private Object poll() {
+        Object value = queue.poll();
+        return value == null ? EMPTY : unwrap(value);
+    }
+
+    private Object unwrap(Object value) {
+        if (value == CLOSED) {
+            queue.offer(CLOSED);
+            return null;
+        }
+        if (space != null) space.release();
+        return value == NIL ? null : value;
+    }
+
+    void close() {
+        closing.writeLock().lock();
+        try {
+            if (closed) return;
+            closed = true;
+            queue.offer(CLOSED);
+        } finally {
+            closing.writeLock().unlock();
+        }
+        // Let blocked senders through to fail
+        if (space != null) space.release(Integer.MAX_VALUE / 2);
+        wakeSelectors();
+    }
+
+    private void wakeSelectors() {
+        for (Thread selector : selectors) LockSupport.unpark(selector);
+    }
+
+    // Takes a value from whichever channel has one first.  Channels are
+    // polled from a random start so that a busy one can't starve the rest.
+    static LoxInstance select(List<LoxChannel> channels, Interpreter selector) {
+        Thread self = Thread.currentThread();
+        for (LoxChannel channel : channels) channel.selectors.add(self);
+        try {
+            while (true) {
+                int start = ThreadLocalRandom.current().nextInt(channels.size());
+                for (int i = 0; i < channels.size(); i++) {
+                    LoxChannel channel = channels.get((start + i) % channels.size());
+                    Object value = channel.poll();
+                    if (value != EMPTY) return selected(channel, value);
+                }
+                // A send after we registered unparks us, even before we park
+                LockSupport.parkNanos(channels, selector.waitLimit());
+                if (Thread.interrupted()) {
+                    self.interrupt();
+                    throw new RuntimeError(null, "Interrupted while selecting.");
+                }
+            }
+        } finally {
+            for (LoxChannel channel : channels) channel.selectors.remove(self);
+        }
+    }
+
+    private static LoxInstance selected(LoxChannel channel, Object value) {
+        LoxInstance result = new LoxInstance(SELECTED);
+        result.fields().put("channel", channel);
+        result.fields().put("value", value);
+        return result;
+    }
+
+    private static LoxChannel channel(Object value) {
+        if (!(value instanceof LoxChannel)) {
+            throw new RuntimeError(null, "Expected a channel.");
+        }
+        return (LoxChannel) value;
+    }
+
+    static void defineNatives(Interpreter interpreter) {
+        // channel() is unbounded, channel(n) holds at most n values
+        interpreter.defineNative("channel", new NativeFunction(LoxCallable.VARIADIC) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                if (arguments.isEmpty()) return new LoxChannel(0);
+                if (arguments.size() > 1 || !(arguments.get(0) instanceof Double)
+                        || (double) arguments.get(0) < 1) {
+                    throw new RuntimeError(null, "channel() takes no capacity or a capacity of at least 1.");
+                }
+                return new LoxChannel((int) (double) arguments.get(0));
+            }
+        });
+        interpreter.defineNative("send", new NativeFunction(2) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                channel(arguments.get(0)).send(arguments.get(1), interpreter);
+                return null;
+            }
+        });
+        interpreter.defineNative("receive", new NativeFunction(1) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return channel(arguments.get(0)).receive(interpreter);
+            }
+        });
+        interpreter.defineNative("close", new NativeFunction(1) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                channel(arguments.get(0)).close();
+                return null;
+            }
+        });
+        interpreter.defineNative("select", new NativeFunction(LoxCallable.VARIADIC) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                if (arguments.isEmpty()) throw new RuntimeError(null, "select() needs at least one channel.");
+                List<LoxChannel> channels = new ArrayList<>();
+                for (Object argument : arguments) channels.add(channel(argument));
+                return select(channels, interpreter);
+            }
+        });
+        // spawn(fn, args...) runs fn as an actor with its own interpreter state
+        interpreter.defineNative("spawn", new NativeFunction(LoxCallable.VARIADIC) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                if (arguments.isEmpty() || !(arguments.get(0) instanceof LoxCallable)) {
+                    throw new RuntimeError(null, "spawn() needs a function to run.");
+                }
+                LoxCallable actor = (LoxCallable) arguments.get(0);
+                List<Object> rest = new ArrayList<>(arguments.subList(1, arguments.size()));
+                for (Object argument : arguments) Sharing.publish(argument);
+                if (actor.arity() != LoxCallable.VARIADIC && rest.size() != actor.arity()) {
+                    throw new RuntimeError(null, "Expected " + actor.arity() +
+                            " arguments for the spawned function but got " + rest.size() + ".");
+                }
+                LoxFuture.spawn(interpreter.fork(), actor, rest);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "<channel>";
+    }
+
+}
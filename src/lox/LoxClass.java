@@ -20,6 +20,14 @@ public class LoxClass extends LoxInstance implements LoxCallable {
         this.methods = methods;
     }
 
+    LoxClass superclass() {
+        return superclass;
+    }
+
+    Map<String, LoxFunction> methods() {
+        return methods;
+    }
+
     public LoxFunction findMethod(String name) {
         if (methods.containsKey(name)) {
             return methods.get(name);
@@ -55,11 +63,25 @@ public class LoxClass extends LoxInstance implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
+        Flight.Instantiation event = null;
+        if (Flight.ENABLED) {
+            event = new Flight.Instantiation();
+            event.begin();
+        }
         LoxInstance instance = new LoxInstance(this);
+        interpreter.allocated();
+        if (RuntimeStats.enabled) RuntimeStats.INSTANCES.increment();
         LoxFunction initializer = findMethod(ClassConstant.INIT);
         if (initializer != null) {
             initializer.bind(instance).call(interpreter, arguments);
         }
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.className = name;
+                event.commit();
+            }
+        }
         return instance;
     }
 
@@ -0,0 +1,54 @@
+package lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Runs a script on a {@link LoxServer}, relaying its output and exit status.
+ */
+public class LoxClient {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: jloxc port|socket-path [jlox options] script|-");
+            System.exit(64);
+        }
+        String[] loxArgs = Arrays.copyOfRange(args, 1, args.length);
+        byte[] stdin = Arrays.asList(loxArgs).contains("-") ? System.in.readAllBytes() : new byte[0];
+
+        try (SocketChannel channel = LoxServer.connect(args[0])) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            if (args[0].matches("\\d+")) {
+                out.writeUTF(Files.readString(LoxServer.tokenFile(args[0])));
+            }
+            out.writeUTF(System.getProperty("user.dir"));
+            out.writeInt(loxArgs.length);
+            for (String arg : loxArgs) out.writeUTF(arg);
+            out.writeInt(stdin.length);
+            out.write(stdin);
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            while (true) {
+                byte kind = in.readByte();
+                if (kind == LoxServer.EXIT) {
+                    System.exit(in.readInt());
+                }
+                byte[] chunk = new byte[in.readInt()];
+                in.readFully(chunk);
+                PrintStream target = kind == LoxServer.ERR ? System.err : System.out;
+                target.write(chunk);
+                target.flush();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,83 @@
+package lox;
+
+import exceptions.RuntimeError;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Globals and output sinks for running {@link LoxProgram}s.  Programs run
+ * in the same context see each other's globals.  A context is used by one
+ * thread at a time; use one context per thread to run concurrently.
+ */
+public class LoxContext {
+
+    private final Reporter reporter;
+    private final Interpreter interpreter;
+    private Budget budget;
+
+    LoxContext(Reporter reporter) {
+        this.reporter = reporter;
+        this.interpreter = new Interpreter(reporter);
+    }
+
+    // A RuntimeError stops the program and is thrown to the caller.  Returns
+    // the value of the program's last statement if it is an expression.
+    public Object run(LoxProgram program) {
+        interpreter.limit(budget);
+        try {
+            return interpreter.execute(program);
+        } finally {
+            reporter.out().flush();
+        }
+    }
+
+    // Like run, but time-sliced with the other scripts on scheduler
+    public Object run(LoxProgram program, Scheduler scheduler) {
+        return scheduler.run(interpreter, () -> run(program));
+    }
+
+    // Like run, but a runtime error is written to the error sink; returns
+    // false if there was one
+    public boolean runReporting(LoxProgram program) {
+        try {
+            run(program);
+            return true;
+        } catch (RuntimeError error) {
+            reporter.runtimeError(error);
+            return false;
+        }
+    }
+
+    public Object call(LoxCallable callee, List<Object> arguments) {
+        interpreter.limit(budget);
+        try {
+            return interpreter.call(callee, arguments);
+        } finally {
+            reporter.out().flush();
+        }
+    }
+
+    // Limits for each later run or call; an exhausted budget throws a
+    // BudgetExceededError, which is a RuntimeError
+    public void setBudget(Budget budget) {
+        this.budget = budget;
+    }
+
+    Map<String, Object> globals() {
+        return interpreter.globals.values();
+    }
+
+    public boolean isDefined(String name) {
+        return interpreter.globals.values().containsKey(name);
+    }
+
+    public Object get(String name) {
+        return interpreter.globals.values().get(name);
+    }
+
+    public void define(String name, Object value) {
+        interpreter.globals.define(name, value);
+    }
+
+}
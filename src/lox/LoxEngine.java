@@ -0,0 +1,44 @@
+package lox;
+
+import exceptions.CompileError;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+
+/**
+ * Entry point for embedding jlox.  Compile a script once into a
+ * {@link LoxProgram}, then run it in as many {@link LoxContext}s as needed;
+ * contexts share nothing mutable, so each can be driven from its own
+ * thread.
+ *
+ * <pre>
+ * LoxEngine engine = new LoxEngine();
+ * LoxProgram program = engine.compile("print greeting + \" world\";");
+ * LoxContext context = engine.newContext(out, err);
+ * context.define("greeting", "hello");
+ * context.run(program);
+ * </pre>
+ */
+public class LoxEngine {
+
+    // Throws CompileError with the scanner, parser and resolver diagnostics
+    public LoxProgram compile(String source) {
+        StringWriter diagnostics = new StringWriter();
+        Reporter reporter = new Reporter(new PrintWriter(Writer.nullWriter()), new PrintWriter(diagnostics, true));
+        LoxProgram program = new Lox(new LoxOptions(), reporter).compileProgram(source);
+        if (program == null) {
+            throw new CompileError(diagnostics.toString().trim());
+        }
+        return program;
+    }
+
+    public LoxContext newContext() {
+        return new LoxContext(Reporter.console());
+    }
+
+    public LoxContext newContext(PrintWriter out, PrintWriter err) {
+        return new LoxContext(new Reporter(out, err));
+    }
+
+}
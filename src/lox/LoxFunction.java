@@ -13,21 +13,42 @@ public class LoxFunction implements LoxCallable {
     private final Environment closure;
     private final boolean isLambda;
     private final boolean isInitializer;
+    private final Resolution resolution;
 
     public final FunctionType functionType;
 
-    public LoxFunction(Stmt.Function declaration, Environment closure, FunctionType functionType) {
+    public LoxFunction(Stmt.Function declaration, Environment closure, FunctionType functionType,
+                       Resolution resolution) {
         this.declaration = declaration;
         this.closure = closure;
+        this.resolution = resolution;
         this.functionType = functionType;
         this.isInitializer = FunctionType.INITIALIZER.equals(this.functionType);
         this.isLambda = FunctionType.LAMBDA.equals(this.functionType);
     }
 
+    Stmt.Function declaration() {
+        return declaration;
+    }
+
+    Environment closure() {
+        return closure;
+    }
+
+    Resolution resolution() {
+        return resolution;
+    }
+
+    // How the profiler names this function
+    String profileName() {
+        return (isLambda ? "lambda" : declaration.name.lexeme) + ":" + declaration.name.line;
+    }
+
     public LoxFunction bind(LoxInstance instance) {
+        if (RuntimeStats.enabled) RuntimeStats.BOUND_METHODS.increment();
         Environment environment = new Environment(closure);
         environment.define(ClassConstant.THIS, instance);
-        return new LoxFunction(this.declaration, environment, this.functionType);
+        return new LoxFunction(this.declaration, environment, this.functionType, this.resolution);
     }
 
     @Override
@@ -37,16 +58,37 @@ public class LoxFunction implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
+        interpreter.tick();
+        if (RuntimeStats.enabled) RuntimeStats.CALLS.increment();
         Environment environment = new Environment(this.closure);
+        interpreter.allocated();
         for (int i = 0; i < this.declaration.params.size(); i++) {
             environment.define(this.declaration.params.get(i).lexeme, arguments.get(i));
         }
+        Resolution caller = interpreter.swapResolution(resolution);
+        Profiler.Stack profile = interpreter.profile();
+        if (profile != null) profile.enter(this);
+        Flight.Call event = null;
+        if (Flight.ENABLED) {
+            event = new Flight.Call();
+            event.begin();
+        }
         try {
             interpreter.executeBlock(this.declaration.body, environment);
         } catch (Return ret) {
             if (isInitializer)
                 return closure.getAt(0, ClassConstant.THIS);
             return ret.getValue();
+        } finally {
+            if (profile != null) profile.exit();
+            if (event != null) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.function = profileName();
+                    event.commit();
+                }
+            }
+            interpreter.swapResolution(caller);
         }
         if (isInitializer)
             return closure.getAt(0, ClassConstant.THIS);
@@ -0,0 +1,99 @@
+package lox;
+
+import exceptions.BudgetExceededError;
+import exceptions.RuntimeError;
+import model.Token;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The result of an {@code async} call.  Each task runs on its own
+ * {@link Interpreter} fork, so environment pointer and loop flags are per
+ * task while globals are shared.  Tasks get a virtual thread where the JDK
+ * has them and a cached daemon thread otherwise.
+ */
+class LoxFuture {
+
+    // Also runs the right operands of --parallel-comma, which may block like any task
+    static final ExecutorService TASKS = newExecutor("lox-async");
+
+    private final CompletableFuture<Object> result;
+
+    private LoxFuture(CompletableFuture<Object> result) {
+        this.result = result;
+    }
+
+    static LoxFuture start(Interpreter task, LoxCallable callee, List<Object> arguments, Token paren) {
+        return new LoxFuture(CompletableFuture.supplyAsync(() -> {
+            try {
+                Object result = callee.call(task, arguments);
+                Sharing.publish(result);
+                return result;
+            } catch (RuntimeError error) {
+                if (error.token != null || error instanceof BudgetExceededError) throw error;
+                throw new RuntimeError(paren, error.getMessage());
+            } finally {
+                task.finished();
+            }
+        }, TASKS));
+    }
+
+    // Fire and forget: nobody joins the task, so its error is reported right away
+    static void spawn(Interpreter task, LoxCallable callee, List<Object> arguments) {
+        TASKS.execute(() -> {
+            try {
+                callee.call(task, arguments);
+            } catch (RuntimeError error) {
+                task.reporter().runtimeError(error);
+            } finally {
+                task.finished();
+            }
+        });
+    }
+
+    // Blocks until the task is done or waiter's --timeout passes; a runtime
+    // error in the task is thrown here
+    Object join(Interpreter waiter) {
+        try {
+            while (true) {
+                try {
+                    return result.get(waiter.waitLimit(), TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    // waitLimit throws on the next pass
+                }
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeError(null, "Interrupted while awaiting.");
+        }
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor only exists from JDK 21 on
+    static ExecutorService newExecutor(String name) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<future>";
+    }
+
+}
@@ -3,13 +3,14 @@ package lox;
 import exceptions.RuntimeError;
 import model.Token;
 
-import java.util.HashMap;
 import java.util.Map;
 
 public class LoxInstance {
 
     private LoxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    private Map<String, Object> fields = SlotTable.newValueMap();
+    // See Sharing; only ever set under -Djlox.objects=concurrent
+    private boolean shared = false;
 
     public LoxInstance(LoxClass klass) {
         this.klass = klass;
@@ -19,6 +20,22 @@ public class LoxInstance {
 
     }
 
+    LoxClass klass() {
+        return klass;
+    }
+
+    Map<String, Object> fields() {
+        return fields;
+    }
+
+    // false if it already was
+    boolean share() {
+        if (shared) return false;
+        fields = new SharedValues(fields);
+        shared = true;
+        return true;
+    }
+
     public Object get(Token name) {
         if (fields.containsKey(name.lexeme)) {
             return fields.get(name.lexeme);
@@ -32,6 +49,7 @@ public class LoxInstance {
     }
 
     public void set(Token name, Object value) {
+        if (Sharing.ENABLED && shared) Sharing.publish(value);
         fields.put(name.lexeme, value);
     }
 
@@ -0,0 +1,210 @@
+package lox;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Command line switches accepted by {@link Lox#main}.
+ */
+public class LoxOptions {
+
+    static final String USAGE =
+            "Usage: jlox [--lazy] [--parallel-parse] [--parallel-scan] [--compact-tokens] [--stream] [--bulk-scan]\n"
+            + "            [--flat-ast] [--cache] [--cache-dir dir] [--snapshot image] [--image image]\n"
+            + "            [--parallel-comma] [--max-ticks n] [--max-allocations n] [--timeout ms]\n"
+            + "            [--profile file | --profile-sample file] [--coverage file] [script | -]\n"
+            + "       jlox --serve port|socket-path [--workers n] [--slice ticks] [--metrics port]";
+
+    public String script;
+
+    // --lazy: only recognize function bodies, build and resolve them on first
+    // call.  Syntax errors and the resolver's context checks (return, this,
+    // super, ...) still stop the script before it runs; errors about
+    // variables, e.g. a duplicate local, only show up on the first call.
+    public boolean lazyParse = false;
+
+    // --parallel-parse: parse top-level declarations on the fork/join pool
+    public boolean parallelParse = false;
+
+    // --parallel-scan: scan newline-delimited chunks of the source concurrently
+    public boolean parallelScan = false;
+
+    // --compact-tokens: keep tokens in a TokenBuffer instead of a List<Token>
+    public boolean compactTokens = false;
+
+    // --stream: memory-map the script and scan it as the parser pulls tokens
+    public boolean stream = false;
+
+    // --bulk-scan: classify characters in blocks (vectorized when available)
+    public boolean bulkScan = false;
+
+    // --flat-ast: pack the parsed program into a FlatAst and decode nodes as they are reached
+    public boolean flatAst = false;
+
+    // --cache: reuse the resolved program from a .loxc file next to the script
+    public boolean cache = false;
+
+    // --cache-dir dir: keep .loxc files in dir, named by source hash (implies --cache)
+    public Path cacheDir;
+
+    // --snapshot image: after the script has run, save its globals to image
+    public Path snapshot;
+
+    // --image image: start from the globals saved in image
+    public Path image;
+
+    // --parallel-comma: evaluate comma operands concurrently when they are provably independent
+    public boolean parallelComma = false;
+
+    // --max-ticks n: stop the script after n loop iterations and function calls
+    public long maxTicks = Budget.UNLIMITED;
+
+    // --max-allocations n: stop the script after it makes n environments and instances
+    public long maxAllocations = Budget.UNLIMITED;
+
+    // --timeout ms: stop the script after ms milliseconds
+    public long timeout = Budget.UNLIMITED;
+
+    // --profile file: time every function call, report on stderr and write collapsed stacks to file
+    // --profile-sample file: the same from stack samples taken every millisecond
+    public Path profile;
+    public boolean profileSampling = false;
+
+    // --metrics port: count interpreter events and serve them to Prometheus on a localhost port
+    public int metrics = 0;
+
+    // --coverage file: count the hits on each line of the script and write them to file as LCOV
+    public Path coverage;
+
+    // --serve address: run scripts for LoxClient on a localhost port or a Unix socket
+    public String serve;
+
+    // --workers n: with --serve, how many scripts run at once
+    public int workers = Runtime.getRuntime().availableProcessors();
+
+    // --slice ticks: with --serve, safepoints a script passes before giving up its worker
+    public int slice = Scheduler.DEFAULT_SLICE;
+
+    static LoxOptions fromArgs(String[] args) {
+        LoxOptions options = new LoxOptions();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                if (options.script != null) {
+                    throw new IllegalArgumentException("Only one script can be run at a time.");
+                }
+                options.script = arg;
+                continue;
+            }
+            switch (arg) {
+                case "--lazy":
+                    options.lazyParse = true;
+                    break;
+                case "--parallel-parse":
+                    options.parallelParse = true;
+                    break;
+                case "--parallel-scan":
+                    options.parallelScan = true;
+                    break;
+                case "--compact-tokens":
+                    options.compactTokens = true;
+                    break;
+                case "--stream":
+                    options.stream = true;
+                    break;
+                case "--bulk-scan":
+                    options.bulkScan = true;
+                    break;
+                case "--flat-ast":
+                    options.flatAst = true;
+                    break;
+                case "--cache":
+                    options.cache = true;
+                    break;
+                case "--cache-dir":
+                    options.cache = true;
+                    options.cacheDir = Paths.get(value(args, ++i, arg));
+                    break;
+                case "--snapshot":
+                    options.snapshot = Paths.get(value(args, ++i, arg));
+                    break;
+                case "--image":
+                    options.image = Paths.get(value(args, ++i, arg));
+                    break;
+                case "--parallel-comma":
+                    options.parallelComma = true;
+                    break;
+                case "--max-ticks":
+                    options.maxTicks = count(args, ++i, arg);
+                    break;
+                case "--max-allocations":
+                    options.maxAllocations = count(args, ++i, arg);
+                    break;
+                case "--timeout":
+                    options.timeout = count(args, ++i, arg);
+                    break;
+                case "--profile":
+                    options.profile = Paths.get(value(args, ++i, arg));
+                    options.profileSampling = false;
+                    break;
+                case "--profile-sample":
+                    options.profile = Paths.get(value(args, ++i, arg));
+                    options.profileSampling = true;
+                    break;
+                case "--coverage":
+                    options.coverage = Paths.get(value(args, ++i, arg));
+                    break;
+                case "--metrics":
+                    options.metrics = (int) Math.min(65535, count(args, ++i, arg));
+                    break;
+                case "--serve":
+                    options.serve = value(args, ++i, arg);
+                    break;
+                case "--workers":
+                    options.workers = (int) Math.min(Integer.MAX_VALUE, count(args, ++i, arg));
+                    break;
+                case "--slice":
+                    options.slice = (int) Math.min(Integer.MAX_VALUE, count(args, ++i, arg));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option '" + arg + "'.");
+            }
+        }
+        if (options.compactTokens && options.parallelScan) {
+            throw new IllegalArgumentException("--compact-tokens and --parallel-scan can't be used together.");
+        }
+        if (options.stream && options.cache) {
+            throw new IllegalArgumentException("--stream and --cache can't be used together.");
+        }
+        return options;
+    }
+
+    // Relative paths are taken against directory, e.g. a LoxClient's working directory
+    void resolveAgainst(Path directory) {
+        if (script != null && !"-".equals(script)) script = directory.resolve(script).toString();
+        if (cacheDir != null) cacheDir = directory.resolve(cacheDir);
+        if (snapshot != null) snapshot = directory.resolve(snapshot);
+        if (image != null) image = directory.resolve(image);
+        if (profile != null) profile = directory.resolve(profile);
+        if (coverage != null) coverage = directory.resolve(coverage);
+    }
+
+    private static String value(String[] args, int i, String option) {
+        if (i == args.length) {
+            throw new IllegalArgumentException("Expected a value after '" + option + "'.");
+        }
+        return args[i];
+    }
+
+    private static long count(String[] args, int i, String option) {
+        String value = value(args, i, option);
+        try {
+            long count = Long.parseLong(value);
+            if (count > 0) return count;
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Expected a positive number after '" + option + "'.");
+    }
+
+}
@@ -0,0 +1,23 @@
+package lox;
+
+import model.Stmt;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A parsed and resolved script, built by {@link LoxEngine#compile}.
+ * Nothing in it changes once built, so any number of {@link LoxContext}s
+ * can run it at the same time.
+ */
+public final class LoxProgram {
+
+    final List<Stmt> statements;
+    final Resolution resolution;
+
+    LoxProgram(List<Stmt> statements, Resolution resolution) {
+        this.statements = Collections.unmodifiableList(statements);
+        this.resolution = resolution;
+    }
+
+}
@@ -0,0 +1,281 @@
+package lox;
+
+import exceptions.CompileError;
+import exceptions.RuntimeError;
+import model.Token;
+import model.TokenType;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.Invocable;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A JSR-223 engine over {@link LoxEngine}.  The engine scope is backed by the
+ * interpreter's globals.  Scripts are compiled through a cache keyed by
+ * source hash, so evaluating the same source twice scans, parses and
+ * resolves it only once.
+ */
+public class LoxScriptEngine extends AbstractScriptEngine implements Compilable, Invocable {
+
+    private final LoxScriptEngineFactory factory;
+    private final ModuleCache compiled;
+    private final LoxEngine engine = new LoxEngine();
+
+    // The context of the eval or call in progress, where print output goes
+    private ScriptContext running;
+
+    LoxScriptEngine(LoxScriptEngineFactory factory, ModuleCache compiled) {
+        this.factory = factory;
+        this.compiled = compiled;
+        context.setBindings(createBindings(), ScriptContext.ENGINE_SCOPE);
+    }
+
+    @Override
+    public Bindings createBindings() {
+        return new LoxBindings(engine.newContext(forward(false), forward(true)));
+    }
+
+    private PrintWriter forward(boolean error) {
+        return new PrintWriter(new Writer() {
+            private Writer target() {
+                ScriptContext target = running != null ? running : context;
+                return error ? target.getErrorWriter() : target.getWriter();
+            }
+
+            @Override
+            public void write(char[] chars, int off, int len) throws IOException {
+                target().write(chars, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                target().flush();
+            }
+
+            @Override
+            public void close() {
+            }
+        }, true);
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory() {
+        return factory;
+    }
+
+    private LoxProgram program(String source) throws ScriptException {
+        String key = ScriptCache.hex(ScriptCache.sha256(source.getBytes(StandardCharsets.UTF_8)));
+        LoxProgram program = compiled.get(key);
+        if (program == null) {
+            try {
+                program = engine.compile(source);
+            } catch (CompileError error) {
+                throw new ScriptException(error.getMessage());
+            }
+            compiled.put(key, program);
+        }
+        return program;
+    }
+
+    private static String read(Reader reader) throws ScriptException {
+        StringWriter source = new StringWriter();
+        try {
+            reader.transferTo(source);
+        } catch (IOException e) {
+            throw new ScriptException(e);
+        }
+        return source.toString();
+    }
+
+    private Object run(LoxProgram program, ScriptContext ctx) throws ScriptException {
+        Bindings bindings = ctx.getBindings(ScriptContext.ENGINE_SCOPE);
+        LoxContext lox;
+        // Globals before the run, to copy back only what the script defined or changed
+        Map<String, Object> before = null;
+        if (bindings instanceof LoxBindings) {
+            lox = ((LoxBindings) bindings).context;
+        } else {
+            lox = ((LoxBindings) createBindings()).context;
+            for (Map.Entry<String, Object> entry : bindings.entrySet()) {
+                lox.define(entry.getKey(), LoxBindings.toLox(entry.getValue()));
+            }
+        }
+        Bindings global = ctx.getBindings(ScriptContext.GLOBAL_SCOPE);
+        if (global != null) {
+            for (Map.Entry<String, Object> entry : global.entrySet()) {
+                if (!lox.isDefined(entry.getKey())) lox.define(entry.getKey(), LoxBindings.toLox(entry.getValue()));
+            }
+        }
+        if (!(bindings instanceof LoxBindings)) before = new HashMap<>(lox.globals());
+
+        ScriptContext previous = running;
+        running = ctx;
+        try {
+            return lox.run(program);
+        } catch (RuntimeError error) {
+            throw scriptException(error, ctx);
+        } finally {
+            running = previous;
+            if (before != null) {
+                for (Map.Entry<String, Object> entry : lox.globals().entrySet()) {
+                    String name = entry.getKey();
+                    if (!before.containsKey(name) || before.get(name) != entry.getValue()) {
+                        bindings.put(name, entry.getValue());
+                    }
+                }
+            }
+        }
+    }
+
+    private static ScriptException scriptException(RuntimeError error, ScriptContext ctx) {
+        Object file = ctx.getAttribute(ScriptEngine.FILENAME);
+        return new ScriptException(error.getMessage(), file == null ? null : file.toString(),
+                error.token == null ? -1 : error.token.line);
+    }
+
+    @Override
+    public Object eval(String script, ScriptContext ctx) throws ScriptException {
+        return run(program(script), ctx);
+    }
+
+    @Override
+    public Object eval(Reader reader, ScriptContext ctx) throws ScriptException {
+        return eval(read(reader), ctx);
+    }
+
+    @Override
+    public CompiledScript compile(String script) throws ScriptException {
+        LoxProgram program = program(script);
+        return new CompiledScript() {
+            @Override
+            public Object eval(ScriptContext ctx) throws ScriptException {
+                return run(program, ctx);
+            }
+
+            @Override
+            public ScriptEngine getEngine() {
+                return LoxScriptEngine.this;
+            }
+        };
+    }
+
+    @Override
+    public CompiledScript compile(Reader script) throws ScriptException {
+        return compile(read(script));
+    }
+
+    private LoxContext engineContext() {
+        Bindings bindings = context.getBindings(ScriptContext.ENGINE_SCOPE);
+        if (!(bindings instanceof LoxBindings)) {
+            throw new IllegalStateException("Functions can only be invoked on jlox bindings.");
+        }
+        return ((LoxBindings) bindings).context;
+    }
+
+    private Object call(LoxContext lox, Object callee, Object[] args) throws ScriptException {
+        List<Object> arguments = new ArrayList<>();
+        if (args != null) {
+            for (Object arg : args) arguments.add(LoxBindings.toLox(arg));
+        }
+        try {
+            return lox.call((LoxCallable) callee, arguments);
+        } catch (RuntimeError error) {
+            throw scriptException(error, context);
+        } catch (IllegalArgumentException error) {
+            throw new ScriptException(error.getMessage());
+        }
+    }
+
+    private Object method(Object thiz, String name) {
+        if (!(thiz instanceof LoxInstance)) {
+            throw new IllegalArgumentException(thiz + " is not a Lox instance.");
+        }
+        try {
+            return ((LoxInstance) thiz).get(new Token(TokenType.IDENTIFIER, name, null, 0));
+        } catch (RuntimeError error) {
+            return null;
+        }
+    }
+
+    @Override
+    public Object invokeFunction(String name, Object... args) throws ScriptException, NoSuchMethodException {
+        LoxContext lox = engineContext();
+        Object function = lox.get(name);
+        if (!(function instanceof LoxCallable)) throw new NoSuchMethodException(name);
+        return call(lox, function, args);
+    }
+
+    @Override
+    public Object invokeMethod(Object thiz, String name, Object... args) throws ScriptException, NoSuchMethodException {
+        Object method = method(thiz, name);
+        if (!(method instanceof LoxCallable)) throw new NoSuchMethodException(name);
+        return call(engineContext(), method, args);
+    }
+
+    @Override
+    public <T> T getInterface(Class<T> clasz) {
+        return proxy(null, clasz);
+    }
+
+    @Override
+    public <T> T getInterface(Object thiz, Class<T> clasz) {
+        return proxy(thiz, clasz);
+    }
+
+    // Null unless every method of the interface has a Lox function behind it
+    private <T> T proxy(Object thiz, Class<T> clasz) {
+        if (clasz == null || !clasz.isInterface()) {
+            throw new IllegalArgumentException(clasz + " is not an interface.");
+        }
+        for (Method method : clasz.getMethods()) {
+            Object target = thiz == null ? engineContext().get(method.getName()) : method(thiz, method.getName());
+            if (!(target instanceof LoxCallable)) return null;
+        }
+        InvocationHandler handler = new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getDeclaringClass() == Object.class) {
+                    return method.invoke(this, args);
+                }
+                Object result = thiz == null
+                        ? invokeFunction(method.getName(), args)
+                        : invokeMethod(thiz, method.getName(), args);
+                return fromLox(result, method.getReturnType());
+            }
+        };
+        return clasz.cast(Proxy.newProxyInstance(clasz.getClassLoader(), new Class<?>[] {clasz}, handler));
+    }
+
+    // Lox numbers are doubles; narrow them to what the Java method returns
+    private static Object fromLox(Object value, Class<?> type) {
+        if (type == void.class) return null;
+        if (!(value instanceof Double)) return value;
+        double number = (Double) value;
+        if (type == int.class || type == Integer.class) return (int) number;
+        if (type == long.class || type == Long.class) return (long) number;
+        if (type == float.class || type == Float.class) return (float) number;
+        if (type == short.class || type == Short.class) return (short) number;
+        if (type == byte.class || type == Byte.class) return (byte) number;
+        return value;
+    }
+
+}
@@ -0,0 +1,101 @@
+package lox;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Makes jlox available through {@code javax.script}, e.g.
+ * {@code new ScriptEngineManager().getEngineByName("lox")}.  Engines from one
+ * factory share a cache of compiled scripts.
+ */
+public class LoxScriptEngineFactory implements ScriptEngineFactory {
+
+    private static final String NAME = "jlox";
+    private static final String VERSION = "1.0";
+    private static final String LANGUAGE = "lox";
+    private static final int CACHED_SCRIPTS = 128;
+
+    private final ModuleCache compiled = new ModuleCache(CACHED_SCRIPTS);
+
+    @Override
+    public String getEngineName() {
+        return NAME;
+    }
+
+    @Override
+    public String getEngineVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public List<String> getExtensions() {
+        return Collections.singletonList("lox");
+    }
+
+    @Override
+    public List<String> getMimeTypes() {
+        return Arrays.asList("application/x-lox", "text/x-lox");
+    }
+
+    @Override
+    public List<String> getNames() {
+        return Arrays.asList("jlox", "lox", "Lox");
+    }
+
+    @Override
+    public String getLanguageName() {
+        return LANGUAGE;
+    }
+
+    @Override
+    public String getLanguageVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public Object getParameter(String key) {
+        switch (key) {
+            case ScriptEngine.ENGINE:
+            case ScriptEngine.NAME:
+                return NAME;
+            case ScriptEngine.ENGINE_VERSION:
+            case ScriptEngine.LANGUAGE_VERSION:
+                return VERSION;
+            case ScriptEngine.LANGUAGE:
+                return LANGUAGE;
+            default:
+                // Includes "THREADING": an engine is not thread-safe
+                return null;
+        }
+    }
+
+    @Override
+    public String getMethodCallSyntax(String obj, String m, String... args) {
+        return obj + "." + m + "(" + String.join(", ", args) + ")";
+    }
+
+    @Override
+    public String getOutputStatement(String toDisplay) {
+        return "print \"" + toDisplay + "\";";
+    }
+
+    @Override
+    public String getProgram(String... statements) {
+        StringBuilder program = new StringBuilder();
+        for (String statement : statements) {
+            program.append(statement);
+            if (!statement.endsWith(";") && !statement.endsWith("}")) program.append(';');
+            program.append('\n');
+        }
+        return program.toString();
+    }
+
+    @Override
+    public ScriptEngine getScriptEngine() {
+        return new LoxScriptEngine(this, compiled);
+    }
+
+}
@@ -0,0 +1,234 @@
+package lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.concurrent.ExecutorService;
+import jdk.net.ExtendedSocketOptions;
+
+/**
+ * A long-lived jlox that runs scripts sent by {@link LoxClient}, so they
+ * skip JVM startup and run on warmed-up code.  Every request gets its own
+ * {@link Lox} and interpreter; compiled scripts are shared between them.
+ * At most {@code --workers} scripts run at once, time-sliced by a
+ * {@link Scheduler} so that one long script can't hold a worker.
+ *
+ * <p>A request is the client's working directory, its jlox arguments and
+ * its stdin.  The reply is a series of frames: a channel byte ({@link #OUT}
+ * or {@link #ERR}) with a length-prefixed chunk of output, ended by an
+ * {@link #EXIT} byte and the exit status.
+ *
+ * <p>Only the account running the server may send it scripts.  The Unix
+ * socket is readable by its owner alone and checks each peer's uid; over
+ * TCP a request starts with the token the server writes to
+ * {@link #tokenFile}, which only that account can read.  Scripts may not
+ * ask the server to write files ({@code --snapshot}, {@code --coverage},
+ * {@code --profile}, {@code --cache}).
+ */
+public class LoxServer {
+
+    static final byte EXIT = 0;
+    static final byte OUT = 1;
+    static final byte ERR = 2;
+
+    private static final int NOT_ALLOWED = 77;
+    private static final int INTERNAL_ERROR = 70;
+
+    private static final int CACHED_MODULES = 256;
+
+    private final String address;
+    private final ModuleCache modules = new ModuleCache(CACHED_MODULES);
+    private final ExecutorService requests = LoxFuture.newExecutor("jlox-request");
+    private final Scheduler scheduler;
+    private UserPrincipal owner;
+    private byte[] token;
+
+    public LoxServer(String address, Scheduler scheduler) {
+        this.address = address;
+        this.scheduler = scheduler;
+    }
+
+    // A bare number is a localhost TCP port, anything else a Unix socket path
+    static SocketAddress socketAddress(String address) {
+        if (address.matches("\\d+")) {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(address));
+        }
+        return UnixDomainSocketAddress.of(address);
+    }
+
+    static Path tokenFile(String port) {
+        return Paths.get(System.getProperty("user.home"), ".jlox-" + port + ".token");
+    }
+
+    static SocketChannel connect(String address) throws IOException {
+        SocketAddress at = socketAddress(address);
+        SocketChannel channel = at instanceof UnixDomainSocketAddress
+                ? SocketChannel.open(StandardProtocolFamily.UNIX) : SocketChannel.open();
+        channel.connect(at);
+        return channel;
+    }
+
+    public void serve() throws IOException {
+        SocketAddress at = socketAddress(address);
+        ServerSocketChannel server;
+        if (at instanceof UnixDomainSocketAddress) {
+            Files.deleteIfExists(((UnixDomainSocketAddress) at).getPath());
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            server = ServerSocketChannel.open();
+        }
+        try (server) {
+            server.bind(at);
+            if (at instanceof UnixDomainSocketAddress) {
+                Path socket = ((UnixDomainSocketAddress) at).getPath();
+                Files.setPosixFilePermissions(socket, PosixFilePermissions.fromString("rw-------"));
+                owner = Files.getOwner(socket);
+            } else {
+                writeToken(tokenFile(address));
+            }
+            System.err.println("jlox listening on " + address);
+            while (true) {
+                SocketChannel client = server.accept();
+                requests.execute(() -> handle(client));
+            }
+        }
+    }
+
+    // A fresh token per run, in a file created owner-only so it is never readable by others
+    private void writeToken(Path file) throws IOException {
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        String hex = HexFormat.of().formatHex(secret);
+        Files.deleteIfExists(file);
+        Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        Files.writeString(file, hex);
+        token = hex.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private boolean allowed(SocketChannel channel, DataInputStream in) throws IOException {
+        if (owner != null) {
+            // The socket's mode already keeps others out; the uid check covers the moment before chmod
+            return channel.getOption(ExtendedSocketOptions.SO_PEERCRED).user().equals(owner);
+        }
+        return MessageDigest.isEqual(in.readUTF().getBytes(StandardCharsets.UTF_8), token);
+    }
+
+    private void handle(SocketChannel channel) {
+        try (channel) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            if (!allowed(channel, in)) {
+                exit(out, NOT_ALLOWED);
+                return;
+            }
+            String cwd = in.readUTF();
+            String[] args = new String[in.readInt()];
+            for (int i = 0; i < args.length; i++) args[i] = in.readUTF();
+            byte[] stdin = new byte[in.readInt()];
+            in.readFully(stdin);
+
+            PrintWriter stdout = frames(out, OUT);
+            PrintWriter stderr = frames(out, ERR);
+            int status;
+            try {
+                status = run(cwd, args, stdin, new Reporter(stdout, stderr));
+            } catch (RuntimeException | Error e) {
+                stderr.println("Internal error: " + e);
+                status = INTERNAL_ERROR;
+            }
+            stdout.flush();
+            stderr.flush();
+            exit(out, status);
+        } catch (IOException e) {
+            // The client went away; nothing is left to tell it
+        }
+    }
+
+    private static void exit(DataOutputStream out, int status) throws IOException {
+        synchronized (out) {
+            out.writeByte(EXIT);
+            out.writeInt(status);
+            out.flush();
+        }
+    }
+
+    private int run(String cwd, String[] args, byte[] stdin, Reporter reporter) {
+        LoxOptions options;
+        try {
+            options = LoxOptions.fromArgs(args);
+        } catch (IllegalArgumentException e) {
+            reporter.out().println(e.getMessage());
+            reporter.out().println(LoxOptions.USAGE);
+            return 64;
+        }
+        if (options.script == null || options.serve != null || options.metrics != 0) {
+            reporter.err().println("The server only runs scripts; pass a path, or - for stdin.");
+            return 64;
+        }
+        if (options.snapshot != null || options.coverage != null || options.profile != null || options.cache) {
+            reporter.err().println("The server doesn't write files; drop --snapshot, --coverage, --profile and --cache.");
+            return 64;
+        }
+        options.resolveAgainst(Paths.get(cwd));
+        Lox lox = new Lox(options, reporter, new ByteArrayInputStream(stdin), modules);
+        return scheduler.run(lox.interpreter(), () -> {
+            try {
+                return lox.start();
+            } catch (IOException e) {
+                reporter.err().println("Can't read script: " + e.getMessage());
+                return 66;
+            }
+        });
+    }
+
+    private static PrintWriter frames(DataOutputStream out, byte kind) {
+        OutputStream frames = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] bytes, int off, int len) throws IOException {
+                synchronized (out) {
+                    out.writeByte(kind);
+                    out.writeInt(len);
+                    out.write(bytes, off, len);
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                synchronized (out) {
+                    out.flush();
+                }
+            }
+        };
+        return new PrintWriter(new OutputStreamWriter(frames, Charset.defaultCharset()), true);
+    }
+
+}
@@ -0,0 +1,152 @@
+package lox;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A UTF-8 source file seen as a {@link CharSequence} without ever holding
+ * all of its characters.  The file is memory-mapped, decoded block by
+ * block on demand, and characters before the last {@link #release} point
+ * are dropped from the window.
+ */
+public class MappedSource implements CharSequence {
+
+    private static final int BLOCK = 64 * 1024;
+    private static final int PAGE = 4096;
+    private static final int PREFETCH_MIN_BYTES = 1024 * 1024;
+
+    private final MappedByteBuffer bytes;
+    private final CharsetDecoder decoder;
+
+    // Decoded characters [windowStart, windowStart + filled)
+    private char[] window = new char[BLOCK];
+    private int windowStart = 0;
+    private int filled = 0;
+    private int released = 0;
+    private boolean done = false;
+
+    private volatile int prefetched;
+
+    private MappedSource(MappedByteBuffer bytes) {
+        this.bytes = bytes;
+        this.decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+    }
+
+    public static MappedSource open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Source file is too large to map: " + path);
+            }
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            MappedSource source = new MappedSource(bytes);
+            if (channel.size() >= PREFETCH_MIN_BYTES) source.prefetch();
+            return source;
+        }
+    }
+
+    // Touches the mapped pages ahead of the decoder on a background thread,
+    // so page faults overlap with scanning and parsing.
+    private void prefetch() {
+        ByteBuffer view = bytes.duplicate();
+        Thread thread = new Thread(() -> {
+            int sum = 0;
+            for (int i = 0; i < view.limit(); i += PAGE) sum += view.get(i);
+            prefetched = sum;
+        }, "jlox-prefetch");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Characters before `index` will never be read again
+    void release(int index) {
+        released = Math.max(released, index);
+    }
+
+    private void ensure(int index) {
+        if (index < windowStart) {
+            throw new IllegalStateException("Character " + index + " was already released.");
+        }
+        while (index >= windowStart + filled && !done) {
+            decodeBlock();
+        }
+    }
+
+    private void decodeBlock() {
+        if (filled + BLOCK > window.length) {
+            int drop = released - windowStart;
+            if (drop > 0) {
+                System.arraycopy(window, drop, window, 0, filled - drop);
+                windowStart += drop;
+                filled -= drop;
+            }
+            if (filled + BLOCK > window.length) {
+                char[] grown = new char[Math.max(window.length * 2, filled + BLOCK)];
+                System.arraycopy(window, 0, grown, 0, filled);
+                window = grown;
+            }
+        }
+        CharBuffer out = CharBuffer.wrap(window, filled, window.length - filled);
+        CoderResult result = decoder.decode(bytes, out, true);
+        if (result.isUnderflow()) {
+            result = decoder.flush(out);
+            done = !bytes.hasRemaining();
+        }
+        if (result.isError()) {
+            try {
+                result.throwException();
+            } catch (CharacterCodingException e) {
+                throw new UncheckedIOException("Source file is not valid UTF-8.", e);
+            }
+        }
+        filled = out.position();
+    }
+
+    // Decodes no further than index, so the Scanner can find the end of
+    // the file without knowing its length
+    boolean isAtEnd(int index) {
+        ensure(index);
+        return index >= windowStart + filled;
+    }
+
+    // Decodes the whole rest of the file; the Scanner uses isAtEnd instead
+    @Override
+    public int length() {
+        ensure(Integer.MAX_VALUE);
+        return windowStart + filled;
+    }
+
+    @Override
+    public char charAt(int index) {
+        ensure(index);
+        return window[index - windowStart];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start == end) return "";
+        ensure(end - 1);
+        if (start < windowStart) {
+            throw new IllegalStateException("Character " + start + " was already released.");
+        }
+        return new String(window, start - windowStart, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(windowStart, length()).toString();
+    }
+
+}
@@ -0,0 +1,16 @@
+package lox;
+
+import java.io.IOException;
+
+/**
+ * Publishes {@link RuntimeStats} somewhere outside the JVM, e.g.
+ * {@link PrometheusExporter}.  Exporters read the counters when asked or on
+ * their own schedule; they never slow the interpreter down.
+ */
+public interface MetricsExporter {
+
+    void start(RuntimeStats stats) throws IOException;
+
+    void stop();
+
+}
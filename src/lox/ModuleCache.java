@@ -0,0 +1,31 @@
+package lox;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compiled programs keyed by the hash of their source, least recently used
+ * dropped first.
+ */
+class ModuleCache {
+
+    private final Map<String, LoxProgram> programs;
+
+    ModuleCache(int capacity) {
+        this.programs = new LinkedHashMap<String, LoxProgram>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, LoxProgram> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    synchronized LoxProgram get(String key) {
+        return programs.get(key);
+    }
+
+    synchronized void put(String key, LoxProgram program) {
+        programs.put(key, program);
+    }
+
+}
@@ -0,0 +1,61 @@
+package lox;
+
+/**
+ * Encodes Lox values into a single {@code long}.
+ * Numbers are stored as their raw IEEE-754 bits; nil, booleans and
+ * object handles live in the payload of a quiet NaN that no arithmetic
+ * result can produce.
+ */
+final class NanBox {
+
+    private static final long SIGN_BIT = 0x8000_0000_0000_0000L;
+    private static final long QNAN     = 0x7ffc_0000_0000_0000L;
+    private static final long PAYLOAD  = 0x0003_ffff_ffff_ffffL;
+
+    static final long NIL   = QNAN | 1;
+    static final long FALSE = QNAN | 2;
+    static final long TRUE  = QNAN | 3;
+
+    private static final long REF = SIGN_BIT | QNAN;
+
+    private NanBox() {
+    }
+
+    static long number(double value) {
+        // doubleToLongBits folds every NaN into the canonical 0x7ff8... pattern
+        return Double.doubleToLongBits(value);
+    }
+
+    static long bool(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    static long ref(int handle) {
+        return REF | handle;
+    }
+
+    static boolean isNumber(long bits) {
+        return (bits & QNAN) != QNAN;
+    }
+
+    static boolean isRef(long bits) {
+        return (bits & REF) == REF;
+    }
+
+    static double asNumber(long bits) {
+        return Double.longBitsToDouble(bits);
+    }
+
+    static int handle(long bits) {
+        return (int) (bits & PAYLOAD);
+    }
+
+    static Object decode(long bits, Object[] refs) {
+        if (isNumber(bits)) return asNumber(bits);
+        if (isRef(bits)) return refs[handle(bits)];
+        if (bits == TRUE) return Boolean.TRUE;
+        if (bits == FALSE) return Boolean.FALSE;
+        return null;
+    }
+
+}
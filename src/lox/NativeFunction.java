@@ -0,0 +1,25 @@
+package lox;
+
+/**
+ * Base for functions implemented in Java.  A native reports a bad argument
+ * by throwing a RuntimeError without a token; the call site fills it in.
+ */
+abstract class NativeFunction implements LoxCallable {
+
+    private final int arity;
+
+    NativeFunction(int arity) {
+        this.arity = arity;
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+
+}
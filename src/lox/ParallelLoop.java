@@ -0,0 +1,194 @@
+package lox;
+
+import constant.Reduction;
+import exceptions.RuntimeError;
+import model.Stmt;
+import model.Token;
+import model.TokenType;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Runs a parallel for.  The iterations are split into ranges on the
+ * fork/join pool; each range runs on its own Interpreter fork with private
+ * copies of the reduction variables, and every iteration gets a fresh
+ * environment for the loop variable.  The private copies are combined once
+ * all ranges are done.
+ */
+class ParallelLoop {
+
+    private final Interpreter parent;
+    private final Environment enclosing;
+    private final Stmt.ParallelFor stmt;
+    private final List<Stmt> body;
+    private final double lower;
+    private final double step;
+    private final int count;
+    private final int grain;
+    private final Reduction[] reductions;
+    private final String[] names;
+    // What each iteration left in a collect target, by target and iteration
+    private final Object[][] collected;
+
+    ParallelLoop(Interpreter parent, Environment enclosing, Stmt.ParallelFor stmt,
+                 double lower, double upper, double step) {
+        this.parent = parent;
+        this.enclosing = enclosing;
+        this.stmt = stmt;
+        this.body = Collections.singletonList(stmt.body);
+        this.lower = lower;
+        this.step = step;
+
+        double span = (upper - lower) / step;
+        long iterations = stmt.comparison.type == TokenType.LESS
+                ? (long) Math.ceil(span) : (long) Math.floor(span) + 1;
+        if (iterations > Integer.MAX_VALUE) {
+            throw new RuntimeError(stmt.keyword, "Too many iterations for a parallel for.");
+        }
+        this.count = (int) Math.max(0, iterations);
+        this.grain = Math.max(1, count / (ForkJoinPool.getCommonPoolParallelism() * 4));
+
+        int targets = stmt.targets.size();
+        this.reductions = new Reduction[targets];
+        this.names = new String[targets];
+        this.collected = new Object[targets][];
+        for (int i = 0; i < targets; i++) {
+            reductions[i] = Reduction.valueOf(stmt.reducers.get(i).lexeme.toUpperCase());
+            names[i] = stmt.targets.get(i).name.lexeme;
+            if (reductions[i] == Reduction.COLLECT) collected[i] = new Object[count];
+        }
+    }
+
+    // The values of the targets after the loop, given those before it
+    Object[] run(Object[] initial) {
+        for (int i = 0; i < initial.length; i++) {
+            if (reductions[i] == Reduction.SUM) number(i, initial[i]);
+            if ((reductions[i] == Reduction.MIN || reductions[i] == Reduction.MAX) && initial[i] != null) {
+                number(i, initial[i]);
+            }
+        }
+        // Workers fork from pool threads, so publish here, on the owning thread
+        Sharing.publish(enclosing);
+        Object[] partial = count == 0 ? null : ForkJoinPool.commonPool().invoke(new Range(0, count));
+
+        Object[] result = new Object[initial.length];
+        for (int i = 0; i < initial.length; i++) {
+            if (reductions[i] == Reduction.COLLECT) {
+                result[i] = collect(initial[i], collected[i], parent);
+            } else if (count == 0) {
+                result[i] = initial[i];
+            } else if (initial[i] == null) {
+                result[i] = partial[i];
+            } else {
+                result[i] = combine(reductions[i], initial[i], partial[i]);
+            }
+        }
+        return result;
+    }
+
+    // Values go in iteration order into the channel the target already
+    // holds, or else into a new one that is closed afterwards
+    private static LoxChannel collect(Object target, Object[] values, Interpreter sender) {
+        LoxChannel channel = target instanceof LoxChannel ? (LoxChannel) target : new LoxChannel(0);
+        for (Object value : values) {
+            if (value != null) channel.send(value, sender);
+        }
+        if (channel != target) channel.close();
+        return channel;
+    }
+
+    private static Object identity(Reduction reduction) {
+        switch (reduction) {
+            case SUM:
+                return 0.0;
+            case MIN:
+                return Double.POSITIVE_INFINITY;
+            case MAX:
+                return Double.NEGATIVE_INFINITY;
+            default:
+                return null;
+        }
+    }
+
+    private static Object combine(Reduction reduction, Object left, Object right) {
+        switch (reduction) {
+            case SUM:
+                return (double) left + (double) right;
+            case MIN:
+                return Math.min((double) left, (double) right);
+            case MAX:
+                return Math.max((double) left, (double) right);
+            default:
+                return null;
+        }
+    }
+
+    private void number(int target, Object value) {
+        if (!(value instanceof Double)) {
+            Token name = stmt.targets.get(target).name;
+            throw new RuntimeError(name, "A " + stmt.reducers.get(target).lexeme
+                    + " reduction needs '" + name.lexeme + "' to hold a number.");
+        }
+    }
+
+    // The reductions of iterations [from, to)
+    private Object[] iterate(int from, int to) {
+        Interpreter worker = parent.fork();
+        Environment privates = new Environment(enclosing);
+        for (int i = 0; i < names.length; i++) {
+            privates.define(names[i], identity(reductions[i]));
+        }
+        try {
+            for (int k = from; k < to; k++) {
+                for (int i = 0; i < names.length; i++) {
+                    if (reductions[i] == Reduction.COLLECT) privates.define(names[i], null);
+                }
+                Environment iteration = new Environment(privates);
+                worker.allocated();
+                iteration.define(stmt.name.lexeme, lower + k * step);
+                worker.executeBlock(body, iteration);
+                for (int i = 0; i < names.length; i++) {
+                    if (reductions[i] == Reduction.COLLECT) collected[i][k] = privates.values().get(names[i]);
+                }
+            }
+        } finally {
+            worker.finished();
+        }
+
+        Object[] partial = new Object[names.length];
+        for (int i = 0; i < names.length; i++) {
+            if (reductions[i] == Reduction.COLLECT) continue;
+            partial[i] = privates.values().get(names[i]);
+            number(i, partial[i]);
+        }
+        return partial;
+    }
+
+    private class Range extends RecursiveTask<Object[]> {
+        private final int from;
+        private final int to;
+
+        Range(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Object[] compute() {
+            if (to - from <= grain) return iterate(from, to);
+            int middle = (from + to) >>> 1;
+            Range left = new Range(from, middle);
+            left.fork();
+            Object[] right = new Range(middle, to).compute();
+            Object[] partial = left.join();
+            for (int i = 0; i < partial.length; i++) {
+                partial[i] = combine(reductions[i], partial[i], right[i]);
+            }
+            return partial;
+        }
+    }
+
+}
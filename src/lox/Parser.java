@@ -1,26 +1,84 @@
 package lox;
 
+import constant.ClassConstant;
+import constant.ClassType;
 import constant.FunctionType;
 import constant.ParserParallelFlag;
+import constant.Precedence;
 import exceptions.ParseError;
 import model.Expr;
 import model.Stmt;
 import model.Token;
+import model.TokenStream;
 import model.TokenType;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 public class Parser {
 
-    private final List<Token> tokens;
+    private final TokenStream tokens;
+    private final boolean lazyBodies;
+    private final Reporter reporter;
     private int current = 0;
     private int nestLoop = 0;
+    private int errors = 0;
+    // Under lazyBodies: bodies inside an already checked one are only
+    // brace-matched
+    private boolean checked = false;
+    // Where the recognizer is, for the resolver checks it repeats
+    private FunctionType currentFunction = FunctionType.NONE;
+    private ClassType currentClass = ClassType.NONE;
+    private int parallelLoop = 0;
+    private boolean parallelBody = false;
     private ParserParallelFlag parserParallelFlag = ParserParallelFlag.ALLOW;
+    // Set under --coverage; see probe()
+    private Coverage coverage;
 
-    public Parser(List<Token> tokens) {
+    public Parser(List<Token> tokens, Reporter reporter) {
+        this(tokens, false, reporter);
+    }
+
+    // lazyBodies == true only syntax-checks function, method and lambda
+    // bodies, see LazyBody
+    public Parser(List<Token> tokens, boolean lazyBodies, Reporter reporter) {
+        this(TokenStream.of(tokens), lazyBodies, reporter);
+    }
+
+    public Parser(TokenStream tokens, boolean lazyBodies, Reporter reporter) {
+        this(tokens, lazyBodies, 0, reporter);
+    }
+
+    Parser(TokenStream tokens, boolean lazyBodies, int nestLoop, Reporter reporter) {
         this.tokens = tokens;
+        this.lazyBodies = lazyBodies;
+        this.reporter = reporter;
+        this.nestLoop = nestLoop;
+    }
+
+    // Wraps every statement from here on in a probe for coverage.  Lazy
+    // bodies are parsed without one, so callers turn lazy parsing off.
+    void instrument(Coverage coverage) {
+        this.coverage = coverage;
+    }
+
+    private Stmt probe(Stmt stmt, int line) {
+        if (coverage == null || stmt == null) return stmt;
+        coverage.probe(line);
+        return new Stmt.Probe(line, stmt);
+    }
+
+    // For LazyBody: the tokens were already parsed once without errors
+    Parser checked() {
+        this.checked = true;
+        return this;
+    }
+
+    boolean hadError() {
+        return errors > 0;
     }
 
     private Token previous() {
@@ -31,8 +89,12 @@ public class Parser {
         return tokens.get(current);
     }
 
-    private Token peek2() {
-        return tokens.get(current + 1);
+    private TokenType peekType() {
+        return tokens.type(current);
+    }
+
+    private TokenType peek2Type() {
+        return tokens.type(current + 1);
     }
 
     private boolean forwardExist(int pace) {
@@ -40,45 +102,44 @@ public class Parser {
     }
 
     private boolean isAtEnd() {
-        return peek().type == TokenType.EOF;
+        return peekType() == TokenType.EOF;
     }
 
     private ParseError error(Token token, String message) {
-        Lox.error(token, message);
+        errors++;
+        reporter.error(token, message);
         return new ParseError();
     }
 
     private Token consume(TokenType type, String message) {
-        if (check(type)) return advance();
+        if (check(type)) {
+            advance();
+            return previous();
+        }
         throw error(peek(), message);
     }
 
-    private Token advance() {
+    private void advance() {
         if (!isAtEnd()) current++;
-        return previous();
     }
 
     private boolean check(TokenType type) {
         if (isAtEnd()) return false;
-        return peek().type == type;
+        return peekType() == type;
 
     }
 
-    private boolean match(TokenType... types) {
-        for(TokenType type: types) {
-            if (check(type)) {
-                advance();
-                return true;
-            }
-        }
-        return false;
+    private boolean match(TokenType type) {
+        if (!check(type)) return false;
+        advance();
+        return true;
     }
 
     private Expr expression() {
         if (match(TokenType.FUN)) {
             return lambda();
         }
-        return parallel();
+        return parsePrecedence(Precedence.PARALLEL);
     }
 
     private Expr.Lambda lambda() {
@@ -98,134 +159,155 @@ public class Parser {
         }
         consume(TokenType.RIGHT_PAREN, "Expect ')' after parameters.");
         Token lambdaStart = consume(TokenType.LEFT_BRACE, "Expect '{' before lambda function body.");
-        List<Stmt> body = block();
+        List<Stmt> body = functionBody(null, -1);
         return new Expr.Lambda(lambdaStart, parameters, body);
     }
 
-    private Expr parallel() {
-        Expr expr = choice();
-        boolean allowParallel = ParserParallelFlag.ALLOW.equals(parserParallelFlag);
-        while (allowParallel && match(TokenType.COMMA)) {
-            Token operator = previous();
-            Expr right = choice();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
+    private static final Precedence[] INFIX = new Precedence[TokenType.values().length];
+
+    static {
+        Arrays.fill(INFIX, Precedence.NONE);
+        INFIX[TokenType.COMMA.ordinal()] = Precedence.PARALLEL;
+        INFIX[TokenType.QUESTION_MARK.ordinal()] = Precedence.CHOICE;
+        INFIX[TokenType.EQUAL.ordinal()] = Precedence.ASSIGNMENT;
+        INFIX[TokenType.OR.ordinal()] = Precedence.OR;
+        INFIX[TokenType.AND.ordinal()] = Precedence.AND;
+        INFIX[TokenType.BANG_EQUAL.ordinal()] = Precedence.EQUALITY;
+        INFIX[TokenType.EQUAL_EQUAL.ordinal()] = Precedence.EQUALITY;
+        INFIX[TokenType.GREATER.ordinal()] = Precedence.COMPARISON;
+        INFIX[TokenType.GREATER_EQUAL.ordinal()] = Precedence.COMPARISON;
+        INFIX[TokenType.LESS.ordinal()] = Precedence.COMPARISON;
+        INFIX[TokenType.LESS_EQUAL.ordinal()] = Precedence.COMPARISON;
+        INFIX[TokenType.MINUS.ordinal()] = Precedence.TERM;
+        INFIX[TokenType.PLUS.ordinal()] = Precedence.TERM;
+        INFIX[TokenType.STAR.ordinal()] = Precedence.FACTOR;
+        INFIX[TokenType.SLASH.ordinal()] = Precedence.FACTOR;
+        INFIX[TokenType.LEFT_PAREN.ordinal()] = Precedence.CALL;
+        INFIX[TokenType.DOT.ordinal()] = Precedence.CALL;
     }
 
-    private Expr choice() {
-        Expr expr = assignment();
-        if (match(TokenType.QUESTION_MARK)) {
-            Expr left = assignment();
-            if (match(TokenType.COLON)) {
-                Expr right = assignment();
-                expr = new Expr.Ternary(expr, left, right);
-            }
+    // How tightly the left operand of an infix operator must already bind.
+    // This keeps the shape of the old descent chain:
+    //   parallel   -> choice (',' choice)*
+    //   choice     -> assignment ('?' assignment (':' assignment)?)?
+    //   assignment -> or ('=' assignment)?
+    // so e.g. a ternary can't be chained or assigned to without parentheses.
+    private static Precedence leftOperand(Precedence operator) {
+        switch (operator) {
+            case CHOICE:
+            case ASSIGNMENT:
+                return operator.next();
+            default:
+                return operator;
         }
-        return expr;
     }
 
-    private Expr assignment() {
-        Expr expr = or();
-
-        if (match(TokenType.EQUAL)) {
-            Token equals = previous();
-            Expr value = assignment();
-
-            if (expr instanceof Expr.Variable) {
-                Token name = ((Expr.Variable)expr).name;
-                return new Expr.Assign(name, value);
-            } else if (expr instanceof Expr.Get) {
-                Expr.Get get = (Expr.Get)expr;
-                return new Expr.Set(get.object, get.name, value);
-            }
-
-            throw error(equals, "Invalid assignment target.");
-        }
-         return expr;
-    }
-
-    private Expr or() {
-        Expr expr = and();
-        while (match(TokenType.OR)) {
-            Token operator = previous();
-            Expr right = and();
-            expr = new Expr.Logical(operator, expr, right);
+    // 'async' and 'await' are only keywords in front of an operand that
+    // could not follow a variable of that name, so they still work as
+    // identifiers: 'await(x)' and 'await - x' use a variable called await.
+    private boolean matchContextual(String keyword) {
+        if (!check(TokenType.IDENTIFIER) || !tokens.lexeme(current).equals(keyword)) return false;
+        switch (peek2Type()) {
+            case IDENTIFIER:
+            case THIS:
+            case SUPER:
+            case FUN:
+            case NUMBER:
+            case STRING:
+            case TRUE:
+            case FALSE:
+            case NIL:
+            case BANG:
+                advance();
+                return true;
+            default:
+                return false;
         }
-        return expr;
     }
 
-    private Expr and() {
-        Expr expr = equality();
-        while (match(TokenType.AND)) {
-            Token operator = previous();
-            Expr right = equality();
-            expr = new Expr.Logical(operator, expr, right);
-        }
-        return expr;
+    private static boolean isUnaryOperator(TokenType type) {
+        return type == TokenType.MINUS || type == TokenType.BANG || type == TokenType.PLUS;
     }
 
-    private Expr equality() {
-        Expr expr = comparison();
-        while (match(TokenType.BANG_EQUAL, TokenType.EQUAL_EQUAL)) {
-            Token operator = previous();
-            Expr right = comparison();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
-    }
-
-    private Expr comparison() {
-        Expr expr = term();
-        while (match(TokenType.GREATER, TokenType.GREATER_EQUAL, TokenType.LESS, TokenType.LESS_EQUAL)) {
-            Token operator = previous();
-            Expr right = term();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
-    }
-
-    private Expr term() {
-        Expr expr = factor();
-        while (match(TokenType.MINUS, TokenType.PLUS)) {
+    private Expr parsePrecedence(Precedence min) {
+        Expr expr;
+        Precedence level;
+        if (isUnaryOperator(peekType())) {
+            advance();
             Token operator = previous();
-            Expr right = factor();
-            expr = new Expr.Binary(expr, operator, right);
+            Expr right = parsePrecedence(Precedence.UNARY);
+            expr = new Expr.Unary(operator, right);
+            level = Precedence.UNARY;
+        } else if (matchContextual("async")) {
+            Token keyword = previous();
+            Expr call = parsePrecedence(Precedence.CALL);
+            if (!(call instanceof Expr.Call)) {
+                throw error(keyword, "Expect a call after 'async'.");
+            }
+            expr = new Expr.Async(keyword, (Expr.Call) call);
+            level = Precedence.UNARY;
+        } else if (matchContextual("await")) {
+            Token keyword = previous();
+            expr = new Expr.Await(keyword, parsePrecedence(Precedence.UNARY));
+            level = Precedence.UNARY;
+        } else {
+            expr = primary();
+            level = Precedence.CALL;
         }
-        return expr;
-    }
 
-    private Expr factor() {
-        Expr expr = unary();
-        while (match(TokenType.STAR, TokenType.SLASH)) {
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
-    }
+        while (true) {
+            TokenType type = peekType();
+            Precedence precedence = INFIX[type.ordinal()];
+            if (precedence == Precedence.NONE || precedence.compareTo(min) < 0) break;
+            if (level.compareTo(leftOperand(precedence)) < 0) break;
+            if (precedence == Precedence.PARALLEL &&
+                    !ParserParallelFlag.ALLOW.equals(parserParallelFlag)) break;
 
-    private Expr unary() {
-        if (match(TokenType.MINUS, TokenType.BANG, TokenType.PLUS)) {
+            advance();
             Token operator = previous();
-            Expr right = unary();
-            return new Expr.Unary(operator, right);
-        }
-        return call();
-    }
-
-    private Expr call() {
-        Expr expr = primary();
-        while (true) {
-            if (match(TokenType.LEFT_PAREN)) {
-                expr = finishCall(expr);
-            } else if (match(TokenType.DOT)) {
-                Token name = consume(TokenType.IDENTIFIER,
-                        "Expect property name after '.'.");
-                expr =  new Expr.Get(expr, name);
-            } else {
-                break;
+            switch (precedence) {
+                case PARALLEL:
+                    expr = new Expr.Binary(expr, operator, parsePrecedence(Precedence.CHOICE));
+                    break;
+                case CHOICE: {
+                    Expr left = parsePrecedence(Precedence.ASSIGNMENT);
+                    if (match(TokenType.COLON)) {
+                        Expr right = parsePrecedence(Precedence.ASSIGNMENT);
+                        expr = new Expr.Ternary(expr, left, right);
+                    }
+                    break;
+                }
+                case ASSIGNMENT: {
+                    Expr value = parsePrecedence(Precedence.ASSIGNMENT);
+                    if (expr instanceof Expr.Variable) {
+                        Token name = ((Expr.Variable)expr).name;
+                        expr = new Expr.Assign(name, value);
+                    } else if (expr instanceof Expr.Get) {
+                        Expr.Get get = (Expr.Get)expr;
+                        expr = new Expr.Set(get.object, get.name, value);
+                    } else {
+                        throw error(operator, "Invalid assignment target.");
+                    }
+                    break;
+                }
+                case OR:
+                case AND:
+                    expr = new Expr.Logical(operator, expr, parsePrecedence(precedence.next()));
+                    break;
+                case CALL:
+                    if (type == TokenType.LEFT_PAREN) {
+                        expr = finishCall(expr);
+                    } else {
+                        Token name = consume(TokenType.IDENTIFIER,
+                                "Expect property name after '.'.");
+                        expr = new Expr.Get(expr, name);
+                    }
+                    break;
+                default:
+                    expr = new Expr.Binary(expr, operator, parsePrecedence(precedence.next()));
+                    break;
             }
+            level = precedence;
         }
         return expr;
     }
@@ -237,7 +319,7 @@ public class Parser {
 
         if (match(TokenType.THIS)) return new Expr.This(previous());
 
-        if (match(TokenType.NUMBER, TokenType.STRING)) {
+        if (match(TokenType.NUMBER) || match(TokenType.STRING)) {
             return new Expr.Literal(previous().literal);
         }
 
@@ -355,6 +437,74 @@ public class Parser {
         return loop;
     }
 
+    private static final String PARALLEL_FORM =
+            "A parallel for must read 'parallel for (var i = lo; i < hi; i = i + step)'.";
+    private static final List<String> REDUCERS = Arrays.asList("sum", "min", "max", "collect");
+
+    // parallel for (var i = lo; i < hi; i = i + step; sum total, collect out) body
+    // Only this counting form is accepted, so the iterations can be handed
+    // out up front.  See ParallelLoop.
+    private Stmt parallelForStatement() {
+        Token keyword = previous();
+        consume(TokenType.FOR, "Expect 'for' after 'parallel'.");
+        consume(TokenType.LEFT_PAREN, "Expect '(' after 'for'.");
+        consume(TokenType.VAR, PARALLEL_FORM);
+        Token name = consume(TokenType.IDENTIFIER, "Expect variable name.");
+        consume(TokenType.EQUAL, PARALLEL_FORM);
+        Expr lower = expression();
+        consume(TokenType.SEMICOLON, "Expect ';' after loop initializer.");
+
+        loopVariable(name);
+        if (!match(TokenType.LESS) && !match(TokenType.LESS_EQUAL)) {
+            throw error(peek(), PARALLEL_FORM);
+        }
+        Token comparison = previous();
+        Expr upper = expression();
+        consume(TokenType.SEMICOLON, "Expect ';' after loop condition.");
+
+        loopVariable(name);
+        consume(TokenType.EQUAL, PARALLEL_FORM);
+        loopVariable(name);
+        consume(TokenType.PLUS, PARALLEL_FORM);
+        Expr step = parsePrecedence(Precedence.FACTOR);
+
+        List<Token> reducers = new ArrayList<>();
+        List<Expr.Variable> targets = new ArrayList<>();
+        if (match(TokenType.SEMICOLON)) {
+            do {
+                Token reducer = consume(TokenType.IDENTIFIER, "Expect a reduction.");
+                if (!REDUCERS.contains(reducer.lexeme)) {
+                    throw error(reducer, "A reduction must be one of sum, min, max or collect.");
+                }
+                reducers.add(reducer);
+                targets.add(new Expr.Variable(consume(TokenType.IDENTIFIER, "Expect variable name after reduction.")));
+            } while (match(TokenType.COMMA));
+        }
+        consume(TokenType.RIGHT_PAREN, "Expect ')' after for clauses.");
+
+        // Iterations don't run in order, so break and continue mean nothing here
+        int enclosingLoop = nestLoop;
+        boolean enclosingBody = parallelBody;
+        nestLoop = 0;
+        parallelBody = true;
+        parallelLoop++;
+        Stmt body;
+        try {
+            body = statement();
+        } finally {
+            nestLoop = enclosingLoop;
+            parallelBody = enclosingBody;
+            parallelLoop--;
+        }
+
+        return new Stmt.ParallelFor(keyword, name, lower, comparison, upper, step, reducers, targets, body);
+    }
+
+    private void loopVariable(Token name) {
+        Token found = consume(TokenType.IDENTIFIER, PARALLEL_FORM);
+        if (!found.lexeme.equals(name.lexeme)) throw error(found, PARALLEL_FORM);
+    }
+
     private Stmt logicStatement() {
         Token token = previous();
         if (nestLoop == 0) {
@@ -366,11 +516,23 @@ public class Parser {
     }
 
     private Stmt statement() {
+        if (coverage == null) return bareStatement();
+        int line = tokens.line(current);
+        return probe(bareStatement(), line);
+    }
+
+    private Stmt bareStatement() {
         if (match(TokenType.IF)) return ifStatement();
         if (match(TokenType.WHILE)) return whileStatement();
         if (match(TokenType.PRINT)) return printStatement();
         if (match(TokenType.RETURN)) return returnStatement();
         if (match(TokenType.FOR)) return forStatement();
+        // 'parallel' is only a keyword in front of 'for'
+        if (check(TokenType.IDENTIFIER) && tokens.lexeme(current).equals("parallel")
+                && peek2Type() == TokenType.FOR) {
+            advance();
+            return parallelForStatement();
+        }
         if (match(TokenType.LEFT_BRACE)) return new Stmt.Block(block());
         if (match(TokenType.BREAK)) return logicStatement();
         if (match(TokenType.CONTINUE)) return logicStatement();
@@ -386,11 +548,440 @@ public class Parser {
         return statements;
     }
 
+    // type and name are only used by the recognizer: the function type the
+    // resolver will give the body, or null for a lambda, and the index of
+    // the function's name
+    private List<Stmt> functionBody(FunctionType type, int name) {
+        if (!lazyBodies) return block();
+
+        // The body is only recognized: the same grammar and syntax errors,
+        // and the resolver's checks that need no scopes, but no nodes.
+        // Building the tree and resolving it wait until LazyBody is read.
+        // A body being expanded was checked with its enclosing one, so only
+        // its braces are matched.
+        int from = current;
+        if (checked) {
+            skipBody();
+        } else {
+            recognizeBody(type, name);
+        }
+        return new LazyBody(tokens, from, current - 1, nestLoop, reporter);
+    }
+
+    private void skipBody() {
+        int braces = 1;
+        while (!isAtEnd()) {
+            TokenType type = peekType();
+            current++;
+            if (type == TokenType.LEFT_BRACE) braces++;
+            if (type == TokenType.RIGHT_BRACE && --braces == 0) return;
+        }
+        throw error(peek(), "Expect '}' after block.");
+    }
+
+    // The recognizer below walks the same grammar as the methods above and
+    // reports the same syntax errors, but builds nothing.  It also repeats
+    // the resolver's checks that need no scopes, so those still come out
+    // before anything runs; checks on variables wait for the first call.
+
+    // What an expression would have parsed to, as far as the grammar cares
+    private enum Shape { OTHER, VARIABLE, GET, CALL }
+
+    // consume() without building the Token
+    private void expect(TokenType type, String message) {
+        if (!match(type)) throw error(peek(), message);
+    }
+
+    private void recognizeBody(FunctionType type, int name) {
+        FunctionType enclosingFunction = currentFunction;
+        boolean enclosingBody = parallelBody;
+        if (type != null) currentFunction = type;
+        parallelBody = false;
+        try {
+            boolean hasReturn = false;
+            while (!check(TokenType.RIGHT_BRACE) && !isAtEnd()) {
+                hasReturn |= check(TokenType.RETURN);
+                recognizeDeclaration();
+            }
+            expect(TokenType.RIGHT_BRACE, "Expect '}' after block.");
+            if (type == FunctionType.GETTER && !hasReturn) {
+                error(tokens.get(name), "A class getter must have a return statement.");
+            }
+        } finally {
+            currentFunction = enclosingFunction;
+            parallelBody = enclosingBody;
+        }
+    }
+
+    private void recognizeDeclaration() {
+        try {
+            if (match(TokenType.CLASS)) {
+                recognizeClass();
+            } else if (match(TokenType.FUN)) {
+                recognizeFunction(FunctionType.FUNCTION, FunctionType.FUNCTION);
+            } else if (match(TokenType.VAR)) {
+                recognizeVar();
+            } else {
+                recognizeStatement();
+            }
+        } catch (ParseError error) {
+            synchronize();
+        }
+    }
+
+    private boolean checkInit() {
+        return check(TokenType.IDENTIFIER) && tokens.lexeme(current).equals(ClassConstant.INIT);
+    }
+
+    private void recognizeClass() {
+        int name = current;
+        expect(TokenType.IDENTIFIER, "Expect class name.");
+        ClassType enclosingClass = currentClass;
+        currentClass = ClassType.CLASS;
+        try {
+            if (match(TokenType.LESS)) {
+                expect(TokenType.IDENTIFIER, "Expect superclass name.");
+                if (tokens.lexeme(name).equals(tokens.lexeme(current - 1))) {
+                    error(previous(), "A class cannot inherit from itself.");
+                }
+                currentClass = ClassType.SUBCLASS;
+            }
+            expect(TokenType.LEFT_BRACE, "Expect '{' before class body.");
+            while (!check(TokenType.RIGHT_BRACE) && !isAtEnd()) {
+                if (TokenType.CLASS.equals(peekType())) {
+                    advance();
+                    if (checkInit()) error(peek(), "The name of a static method can't be 'init'.");
+                    recognizeFunction(FunctionType.METHOD, FunctionType.CLASS_STATIC);
+                } else if (forwardExist(1) && TokenType.LEFT_PAREN.equals(peek2Type())) {
+                    recognizeFunction(FunctionType.METHOD, FunctionType.METHOD);
+                } else {
+                    if (checkInit()) error(peek(), "The name of a class getter can't be 'init'.");
+                    recognizeFunction(FunctionType.GETTER, FunctionType.GETTER);
+                }
+            }
+            expect(TokenType.RIGHT_BRACE, "Expect '}' after class body.");
+        } finally {
+            currentClass = enclosingClass;
+        }
+    }
+
+    private void recognizeFunction(FunctionType kind, FunctionType type) {
+        int name = current;
+        if (!match(TokenType.IDENTIFIER)) throw error(peek(), "Expect " + kind.name().toLowerCase() + " name.");
+        if (type == FunctionType.METHOD && tokens.lexeme(name).equals(ClassConstant.INIT)) {
+            type = FunctionType.INITIALIZER;
+        }
+        if (!FunctionType.GETTER.equals(kind) || check(TokenType.LEFT_PAREN)) {
+            kind = FunctionType.METHOD;
+            if (!match(TokenType.LEFT_PAREN)) {
+                throw error(peek(), "Expect '(' after " + kind.name().toLowerCase() + " name.");
+            }
+            recognizeParameters();
+        }
+        if (!match(TokenType.LEFT_BRACE)) {
+            throw error(peek(), "Expect '{' before " + kind.name().toLowerCase() + " body.");
+        }
+        recognizeBody(type, name);
+    }
+
+    private void recognizeParameters() {
+        if (!check(TokenType.RIGHT_PAREN)) {
+            ParserParallelFlag previous = parserParallelFlag;
+            parserParallelFlag = ParserParallelFlag.DENY;
+            int count = 0;
+            do {
+                if (count++ >= 255) {
+                    throw error(peek(), "Can't have more than 255 parameters.");
+                }
+                expect(TokenType.IDENTIFIER, "Expect parameter name.");
+            } while (match(TokenType.COMMA));
+            parserParallelFlag = previous;
+        }
+        expect(TokenType.RIGHT_PAREN, "Expect ')' after parameters.");
+    }
+
+    private void recognizeVar() {
+        expect(TokenType.IDENTIFIER, "Expect variable name.");
+        if (match(TokenType.EQUAL)) recognizeExpression();
+        expect(TokenType.SEMICOLON, "Expect ';' after variable declaration.");
+    }
+
+    private void recognizeStatement() {
+        if (match(TokenType.IF)) {
+            expect(TokenType.LEFT_PAREN, "Expect '(' after 'if'.");
+            recognizeExpression();
+            expect(TokenType.RIGHT_PAREN, "Expect ')' after if condition.");
+            recognizeStatement();
+            if (match(TokenType.ELSE)) recognizeStatement();
+        } else if (match(TokenType.WHILE)) {
+            expect(TokenType.LEFT_PAREN, "Expect '(' after 'while'.");
+            recognizeExpression();
+            expect(TokenType.RIGHT_PAREN, "Expect ')' after if condition.");
+            recognizeLoopBody();
+        } else if (match(TokenType.PRINT)) {
+            recognizeExpression();
+            expect(TokenType.SEMICOLON, "Expect ';' after value.");
+        } else if (match(TokenType.RETURN)) {
+            recognizeReturn();
+        } else if (match(TokenType.FOR)) {
+            recognizeFor();
+        } else if (check(TokenType.IDENTIFIER) && tokens.lexeme(current).equals("parallel")
+                && peek2Type() == TokenType.FOR) {
+            advance();
+            recognizeParallelFor();
+        } else if (match(TokenType.LEFT_BRACE)) {
+            while (!check(TokenType.RIGHT_BRACE) && !isAtEnd()) recognizeDeclaration();
+            expect(TokenType.RIGHT_BRACE, "Expect '}' after block.");
+        } else if (match(TokenType.BREAK) || match(TokenType.CONTINUE)) {
+            if (nestLoop == 0) throw error(previous(), "Cannot use it outside a loop.");
+            expect(TokenType.SEMICOLON, "Expect ';' after break or continue.");
+        } else {
+            recognizeExpression();
+            match(TokenType.SEMICOLON);
+        }
+    }
+
+    private void recognizeLoopBody() {
+        nestLoop++;
+        recognizeStatement();
+        nestLoop--;
+    }
+
+    private void recognizeReturn() {
+        int keyword = current - 1;
+        if (currentFunction == FunctionType.NONE) {
+            error(tokens.get(keyword), "Can't return from top-level code.");
+        }
+        if (parallelBody) error(tokens.get(keyword), "Can't return from a parallel for.");
+        if (!check(TokenType.SEMICOLON)) {
+            if (currentFunction == FunctionType.INITIALIZER) {
+                error(tokens.get(keyword), "Can't return a value from an initializer.");
+            }
+            recognizeExpression();
+        }
+        expect(TokenType.SEMICOLON, "Expect ';' after return value.");
+    }
+
+    private void recognizeFor() {
+        expect(TokenType.LEFT_PAREN, "Expect '(' after 'for'.");
+        if (match(TokenType.VAR)) {
+            recognizeVar();
+        } else if (!match(TokenType.SEMICOLON)) {
+            recognizeExpression();
+            match(TokenType.SEMICOLON);
+        }
+        if (!check(TokenType.SEMICOLON)) recognizeExpression();
+        expect(TokenType.SEMICOLON, "Expect ';' after loop condition.");
+        if (!check(TokenType.RIGHT_PAREN)) recognizeExpression();
+        expect(TokenType.RIGHT_PAREN, "Expect ')' after for clauses.");
+        recognizeLoopBody();
+    }
+
+    private void recognizeParallelFor() {
+        expect(TokenType.FOR, "Expect 'for' after 'parallel'.");
+        expect(TokenType.LEFT_PAREN, "Expect '(' after 'for'.");
+        expect(TokenType.VAR, PARALLEL_FORM);
+        int name = current;
+        expect(TokenType.IDENTIFIER, "Expect variable name.");
+        expect(TokenType.EQUAL, PARALLEL_FORM);
+        recognizeExpression();
+        expect(TokenType.SEMICOLON, "Expect ';' after loop initializer.");
+
+        recognizeLoopVariable(name);
+        if (!match(TokenType.LESS) && !match(TokenType.LESS_EQUAL)) {
+            throw error(peek(), PARALLEL_FORM);
+        }
+        recognizeExpression();
+        expect(TokenType.SEMICOLON, "Expect ';' after loop condition.");
+
+        recognizeLoopVariable(name);
+        expect(TokenType.EQUAL, PARALLEL_FORM);
+        recognizeLoopVariable(name);
+        expect(TokenType.PLUS, PARALLEL_FORM);
+        recognizePrecedence(Precedence.FACTOR);
+
+        if (match(TokenType.SEMICOLON)) {
+            do {
+                int reducer = current;
+                expect(TokenType.IDENTIFIER, "Expect a reduction.");
+                if (!REDUCERS.contains(tokens.lexeme(reducer))) {
+                    throw error(previous(), "A reduction must be one of sum, min, max or collect.");
+                }
+                expect(TokenType.IDENTIFIER, "Expect variable name after reduction.");
+            } while (match(TokenType.COMMA));
+        }
+        expect(TokenType.RIGHT_PAREN, "Expect ')' after for clauses.");
+
+        int enclosingLoop = nestLoop;
+        boolean enclosingBody = parallelBody;
+        nestLoop = 0;
+        parallelBody = true;
+        parallelLoop++;
+        try {
+            recognizeStatement();
+        } finally {
+            nestLoop = enclosingLoop;
+            parallelBody = enclosingBody;
+            parallelLoop--;
+        }
+    }
+
+    private void recognizeLoopVariable(int name) {
+        int found = current;
+        expect(TokenType.IDENTIFIER, PARALLEL_FORM);
+        if (!tokens.lexeme(found).equals(tokens.lexeme(name))) throw error(previous(), PARALLEL_FORM);
+    }
+
+    private Shape recognizeExpression() {
+        if (match(TokenType.FUN)) {
+            expect(TokenType.LEFT_PAREN, "Expect '(' in lambda expression.");
+            recognizeParameters();
+            expect(TokenType.LEFT_BRACE, "Expect '{' before lambda function body.");
+            recognizeBody(null, -1);
+            return Shape.OTHER;
+        }
+        return recognizePrecedence(Precedence.PARALLEL);
+    }
+
+    private Shape recognizePrecedence(Precedence min) {
+        Shape shape;
+        Precedence level;
+        if (isUnaryOperator(peekType())) {
+            advance();
+            recognizePrecedence(Precedence.UNARY);
+            shape = Shape.OTHER;
+            level = Precedence.UNARY;
+        } else if (matchContextual("async")) {
+            int keyword = current - 1;
+            if (recognizePrecedence(Precedence.CALL) != Shape.CALL) {
+                throw error(tokens.get(keyword), "Expect a call after 'async'.");
+            }
+            shape = Shape.OTHER;
+            level = Precedence.UNARY;
+        } else if (matchContextual("await")) {
+            recognizePrecedence(Precedence.UNARY);
+            shape = Shape.OTHER;
+            level = Precedence.UNARY;
+        } else {
+            shape = recognizePrimary();
+            level = Precedence.CALL;
+        }
+
+        while (true) {
+            TokenType type = peekType();
+            Precedence precedence = INFIX[type.ordinal()];
+            if (precedence == Precedence.NONE || precedence.compareTo(min) < 0) break;
+            if (level.compareTo(leftOperand(precedence)) < 0) break;
+            if (precedence == Precedence.PARALLEL &&
+                    !ParserParallelFlag.ALLOW.equals(parserParallelFlag)) break;
+
+            advance();
+            int operator = current - 1;
+            switch (precedence) {
+                case PARALLEL:
+                    recognizePrecedence(Precedence.CHOICE);
+                    shape = Shape.OTHER;
+                    break;
+                case CHOICE:
+                    // Without ':' the parser keeps the condition
+                    recognizePrecedence(Precedence.ASSIGNMENT);
+                    if (match(TokenType.COLON)) {
+                        recognizePrecedence(Precedence.ASSIGNMENT);
+                        shape = Shape.OTHER;
+                    }
+                    break;
+                case ASSIGNMENT:
+                    recognizePrecedence(Precedence.ASSIGNMENT);
+                    if (shape == Shape.GET) {
+                        if (parallelLoop > 0 && !Sharing.ENABLED) {
+                            error(tokens.get(operator - 1),
+                                    "Can't set a field inside a parallel for unless -Djlox.objects=concurrent is set.");
+                        }
+                    } else if (shape != Shape.VARIABLE) {
+                        throw error(tokens.get(operator), "Invalid assignment target.");
+                    }
+                    shape = Shape.OTHER;
+                    break;
+                case CALL:
+                    if (type == TokenType.LEFT_PAREN) {
+                        recognizeArguments();
+                        shape = Shape.CALL;
+                    } else {
+                        expect(TokenType.IDENTIFIER, "Expect property name after '.'.");
+                        shape = Shape.GET;
+                    }
+                    break;
+                default:
+                    recognizePrecedence(precedence.next());
+                    shape = Shape.OTHER;
+                    break;
+            }
+            level = precedence;
+        }
+        return shape;
+    }
+
+    private Shape recognizePrimary() {
+        if (match(TokenType.TRUE) || match(TokenType.FALSE) || match(TokenType.NIL)
+                || match(TokenType.NUMBER) || match(TokenType.STRING)) {
+            return Shape.OTHER;
+        }
+
+        if (match(TokenType.THIS)) {
+            if (currentClass == ClassType.NONE) {
+                error(previous(), "Can't use 'this' outside of a class.");
+            }
+            if (currentFunction == FunctionType.CLASS_STATIC) {
+                error(previous(), "Can't use 'this' in a static method.");
+            }
+            return Shape.OTHER;
+        }
+
+        if (match(TokenType.SUPER)) {
+            int keyword = current - 1;
+            expect(TokenType.DOT, "Expect '.' after 'super'.");
+            expect(TokenType.IDENTIFIER, "Expect superclass method name.");
+            if (currentClass == ClassType.NONE) {
+                error(tokens.get(keyword), "Can't use 'super' outside of a class.");
+            } else if (currentClass != ClassType.SUBCLASS) {
+                error(tokens.get(keyword), "Can't use 'super' in a class with no superclass.");
+            }
+            return Shape.OTHER;
+        }
+
+        if (match(TokenType.IDENTIFIER)) return Shape.VARIABLE;
+
+        if (match(TokenType.LEFT_PAREN)) {
+            recognizeExpression();
+            expect(TokenType.RIGHT_PAREN, "Expect ')' after expression.");
+            return Shape.OTHER;
+        }
+
+        throw error(peek(), "Expect expression.");
+    }
+
+    private void recognizeArguments() {
+        if (!check(TokenType.RIGHT_PAREN)) {
+            ParserParallelFlag previous = parserParallelFlag;
+            parserParallelFlag = ParserParallelFlag.DENY;
+            int count = 0;
+            do {
+                if (count++ >= 255) {
+                    throw error(peek(), "Can't have more than 255 arguments.");
+                }
+                recognizeExpression();
+            } while (match(TokenType.COMMA));
+            parserParallelFlag = previous;
+        }
+        expect(TokenType.RIGHT_PAREN, "Expect ')' after arguments.");
+    }
+
     private Stmt declaration() {
         try {
-            if (match(TokenType.CLASS)) return classDeclaration();
-            if (match(TokenType.FUN)) return function(FunctionType.FUNCTION);
-            if (match(TokenType.VAR)) return varDeclaration();
+            int line = coverage == null ? 0 : tokens.line(current);
+            if (match(TokenType.CLASS)) return probe(classDeclaration(), line);
+            if (match(TokenType.FUN)) return probe(function(FunctionType.FUNCTION, FunctionType.FUNCTION), line);
+            if (match(TokenType.VAR)) return probe(varDeclaration(), line);
             return statement();
         } catch (ParseError error) {
             synchronize();
@@ -400,8 +991,11 @@ public class Parser {
 
     // kind == Getter
     //  return a getter if '()' is not found after the name token, otherwise return normal class methods
-    private Stmt.Function function(FunctionType kind) {
+    // type is what the resolver will call the function, see functionBody
+    private Stmt.Function function(FunctionType kind, FunctionType type) {
         Token name = consume(TokenType.IDENTIFIER, "Expect " + kind.name().toLowerCase() + " name.");
+        int nameIndex = current - 1;
+        if (type == FunctionType.METHOD && name.lexeme.equals(ClassConstant.INIT)) type = FunctionType.INITIALIZER;
         List<Token> parameters = new ArrayList<>();
         if (!FunctionType.GETTER.equals(kind) || check(TokenType.LEFT_PAREN)) {
             kind = FunctionType.METHOD;
@@ -421,7 +1015,7 @@ public class Parser {
             consume(TokenType.RIGHT_PAREN, "Expect ')' after parameters.");
         }
         consume(TokenType.LEFT_BRACE, "Expect '{' before " + kind.name().toLowerCase() + " body.");
-        List<Stmt> body = block();
+        List<Stmt> body = functionBody(type, nameIndex);
         return new Stmt.Function(name, parameters, body);
     }
 
@@ -448,18 +1042,24 @@ public class Parser {
         List<Stmt.Function> statics = new ArrayList<>();
         List<Stmt.Function> methods = new ArrayList<>();
         List<Stmt.Function> getters = new ArrayList<>();
-        while (!check(TokenType.RIGHT_BRACE) && !isAtEnd()) {
-            if (TokenType.CLASS.equals(peek().type)) {
-                // Static method
-                advance();
-                statics.add(function(FunctionType.METHOD));
-            } else if (forwardExist(1) && TokenType.LEFT_PAREN.equals(peek2().type)) {
-                // name()  -> normal methods
-                methods.add(function(FunctionType.METHOD));
-            } else {
-                // getter
-                getters.add(function(FunctionType.GETTER));
+        ClassType enclosingClass = currentClass;
+        currentClass = superclass == null ? ClassType.CLASS : ClassType.SUBCLASS;
+        try {
+            while (!check(TokenType.RIGHT_BRACE) && !isAtEnd()) {
+                if (TokenType.CLASS.equals(peekType())) {
+                    // Static method
+                    advance();
+                    statics.add(function(FunctionType.METHOD, FunctionType.CLASS_STATIC));
+                } else if (forwardExist(1) && TokenType.LEFT_PAREN.equals(peek2Type())) {
+                    // name()  -> normal methods
+                    methods.add(function(FunctionType.METHOD, FunctionType.METHOD));
+                } else {
+                    // getter
+                    getters.add(function(FunctionType.GETTER, FunctionType.GETTER));
+                }
             }
+        } finally {
+            currentClass = enclosingClass;
         }
 
         consume(TokenType.RIGHT_BRACE, "Expect '}' after class body.");
@@ -487,12 +1087,125 @@ public class Parser {
         return statements;
     }
 
+    private static final int PARALLEL_MIN_TOKENS = 16 * 1024;
+    private static final int PARALLEL_MIN_GRAIN = 4 * 1024;
+
+    // Same result as parse(), but top-level declarations are parsed concurrently
+    public List<Stmt> parseParallel() {
+        if (tokens.size() < PARALLEL_MIN_TOKENS || coverage != null) return parse();
+
+        List<Integer> boundaries = topLevelBoundaries();
+        int grain = Math.max(PARALLEL_MIN_GRAIN,
+                tokens.size() / (ForkJoinPool.getCommonPoolParallelism() * 4));
+        ParseTask task = new ParseTask(boundaries, 0, boundaries.size() - 1, grain);
+        List<Stmt> statements = ForkJoinPool.commonPool().invoke(task);
+        errors += task.errors;
+        current = tokens.size() - 1;
+        return statements;
+    }
+
+    // Token indexes at which a new top-level statement is known to start.
+    // A boundary follows a ';' at depth zero, or a '}' at depth zero when the
+    // next token can only begin a new statement.  Anything in doubt stays in
+    // one range, which a sub-parser handles just like the sequential parser.
+    private List<Integer> topLevelBoundaries() {
+        List<Integer> boundaries = new ArrayList<>();
+        boundaries.add(0);
+        int depth = 0;
+        int end = tokens.size() - 1;
+        for (int i = 0; i < end; i++) {
+            switch (tokens.type(i)) {
+                case LEFT_BRACE:
+                case LEFT_PAREN:
+                    depth++;
+                    break;
+                case RIGHT_BRACE:
+                    if (--depth == 0 && startsStatement(tokens.type(i + 1))) {
+                        boundaries.add(i + 1);
+                    }
+                    break;
+                case RIGHT_PAREN:
+                    depth--;
+                    break;
+                case SEMICOLON:
+                    if (depth == 0) boundaries.add(i + 1);
+                    break;
+            }
+        }
+        if (boundaries.get(boundaries.size() - 1) != end) boundaries.add(end);
+        return boundaries;
+    }
+
+    private static boolean startsStatement(TokenType type) {
+        switch (type) {
+            case CLASS:
+            case FUN:
+            case VAR:
+            case FOR:
+            case IF:
+            case WHILE:
+            case PRINT:
+            case RETURN:
+            case BREAK:
+            case CONTINUE:
+            case LEFT_BRACE:
+            case IDENTIFIER:
+            case THIS:
+            case SUPER:
+            case NUMBER:
+            case STRING:
+            case TRUE:
+            case FALSE:
+            case NIL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private class ParseTask extends RecursiveTask<List<Stmt>> {
+
+        private final List<Integer> boundaries;
+        private final int first;
+        private final int last;
+        private final int grain;
+        private int errors = 0;
+
+        ParseTask(List<Integer> boundaries, int first, int last, int grain) {
+            this.boundaries = boundaries;
+            this.first = first;
+            this.last = last;
+            this.grain = grain;
+        }
+
+        @Override
+        protected List<Stmt> compute() {
+            int from = boundaries.get(first);
+            int to = boundaries.get(last);
+            if (last - first == 1 || to - from <= grain) {
+                Parser parser = new Parser(new TokenRange(tokens, from, to), lazyBodies, nestLoop, reporter);
+                List<Stmt> statements = parser.parse();
+                errors = parser.errors;
+                return statements;
+            }
+
+            int middle = (first + last) >>> 1;
+            ParseTask left = new ParseTask(boundaries, first, middle, grain);
+            ParseTask right = new ParseTask(boundaries, middle, last, grain);
+            right.fork();
+            List<Stmt> statements = left.compute();
+            statements.addAll(right.join());
+            errors = left.errors + right.errors;
+            return statements;
+        }
+    }
+
     private void synchronize() {
         advance();
         while (!isAtEnd()) {
-            if (previous().type == TokenType.SEMICOLON) return;
+            if (tokens.type(current - 1) == TokenType.SEMICOLON) return;
 
-            switch(peek().type) {
+            switch(peekType()) {
                 case CLASS:
                 case FOR:
                 case FUN:
@@ -0,0 +1,241 @@
+package lox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Where a script spends its time, per Lox function.  Every interpreter
+ * keeps a shadow stack of the Lox functions it is in, as a path through its
+ * own call tree.  Instrumenting, each call adds to its tree node's count
+ * and self and total time.  Sampling, a background thread bumps the node
+ * each stack is currently at, and calls aren't timed at all.
+ *
+ * <p>A fork's stack is folded into one tree per root name when its task
+ * ends, so finished tasks take no more samples and don't pile up.
+ * {@link #finish} writes a flat report, one line per function, and a
+ * collapsed-stack file ({@code a;b;c weight} lines) for flame graph tools.
+ * Instrumented weights are self microseconds, sampled ones sample counts.
+ */
+class Profiler {
+
+    private static final long SAMPLE_NANOS = 1_000_000;
+
+    private final boolean sampling;
+    // Stacks whose interpreters are still running
+    private final Set<Stack> stacks = ConcurrentHashMap.newKeySet();
+    // Trees of closed stacks, merged by root name; guarded by this
+    private final Map<String, Node> closed = new LinkedHashMap<>();
+    private final Thread sampler;
+    private volatile boolean running = true;
+
+    Profiler(boolean sampling) {
+        this.sampling = sampling;
+        if (sampling) {
+            sampler = new Thread(this::sample, "lox-profiler");
+            sampler.setDaemon(true);
+            sampler.start();
+        } else {
+            sampler = null;
+        }
+    }
+
+    Stack newStack(String root) {
+        Stack stack = new Stack(root);
+        stacks.add(stack);
+        return stack;
+    }
+
+    private void sample() {
+        while (running) {
+            LockSupport.parkNanos(SAMPLE_NANOS);
+            for (Stack stack : stacks) {
+                // Only this thread writes samples
+                stack.current.samples++;
+            }
+        }
+    }
+
+    private static class Node {
+        final String name;
+        final Node parent;
+        final Map<Object, Node> children = new IdentityHashMap<>();
+        long calls;
+        long selfNanos;
+        long totalNanos;
+        volatile long samples;
+
+        Node(String name, Node parent) {
+            this.name = name;
+            this.parent = parent;
+        }
+    }
+
+    // One interpreter's shadow stack; only its own thread pushes and pops
+    class Stack {
+        private final Node root;
+        private volatile Node current;
+        private long[] starts = new long[64];
+        private long[] childNanos = new long[64];
+        private int depth = 0;
+        private final long started = System.nanoTime();
+
+        Stack(String root) {
+            this.root = new Node(root, null);
+            this.current = this.root;
+        }
+
+        // Called once the interpreter is done; the root's time is its lifetime
+        void close() {
+            if (!stacks.remove(this)) return;
+            if (!sampling) {
+                long covered = 0;
+                for (Node child : root.children.values()) covered += child.totalNanos;
+                root.totalNanos = System.nanoTime() - started;
+                root.selfNanos = Math.max(0, root.totalNanos - covered);
+            }
+            synchronized (Profiler.this) {
+                // Copied, since the sampler may still be holding root
+                merge(root, closed.computeIfAbsent(root.name, name -> new Node(name, null)));
+            }
+        }
+
+        Profiler profiler() {
+            return Profiler.this;
+        }
+
+        void enter(LoxFunction function) {
+            // Lambdas get a new declaration each time, but keep their body
+            Object key = function.declaration().body;
+            Node node = current.children.get(key);
+            if (node == null) {
+                node = new Node(function.profileName(), current);
+                current.children.put(key, node);
+            }
+            node.calls++;
+            current = node;
+            if (sampling) return;
+            if (depth == starts.length) {
+                starts = Arrays.copyOf(starts, depth * 2);
+                childNanos = Arrays.copyOf(childNanos, depth * 2);
+            }
+            childNanos[depth] = 0;
+            starts[depth++] = System.nanoTime();
+        }
+
+        void exit() {
+            Node node = current;
+            current = node.parent;
+            if (sampling) return;
+            long elapsed = System.nanoTime() - starts[--depth];
+            node.totalNanos += elapsed;
+            node.selfNanos += elapsed - childNanos[depth];
+            if (depth > 0) childNanos[depth - 1] += elapsed;
+        }
+    }
+
+    private static void merge(Node from, Node into) {
+        into.calls += from.calls;
+        into.selfNanos += from.selfNanos;
+        into.totalNanos += from.totalNanos;
+        into.samples += from.samples;
+        for (Map.Entry<Object, Node> child : from.children.entrySet()) {
+            Node node = child.getValue();
+            merge(node, into.children.computeIfAbsent(child.getKey(), key -> new Node(node.name, into)));
+        }
+    }
+
+    private static class Totals {
+        long calls;
+        long selfNanos;
+        long totalNanos;
+        long selfSamples;
+        long totalSamples;
+    }
+
+    // Stops sampling, then writes the flat report to report and the
+    // collapsed stacks to collapsed
+    void finish(PrintWriter report, Path collapsed) throws IOException {
+        running = false;
+        if (sampler != null) {
+            try {
+                sampler.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // Tasks still running are cut off here
+        for (Stack stack : stacks) stack.close();
+
+        Map<String, Totals> totals = new HashMap<>();
+        try (Writer out = Files.newBufferedWriter(collapsed, StandardCharsets.UTF_8)) {
+            synchronized (this) {
+                for (Node root : closed.values()) walk(root, root.name, new HashMap<>(), totals, out);
+            }
+        }
+
+        List<Map.Entry<String, Totals>> rows = new ArrayList<>(totals.entrySet());
+        if (sampling) {
+            long all = 0;
+            for (Totals total : totals.values()) all += total.selfSamples;
+            rows.sort((a, b) -> Long.compare(b.getValue().selfSamples, a.getValue().selfSamples));
+            report.printf("%-40s %10s %8s %8s%n", "function", "samples", "self%", "total%");
+            for (Map.Entry<String, Totals> row : rows) {
+                Totals total = row.getValue();
+                report.printf("%-40s %10d %7.1f%% %7.1f%%%n", row.getKey(), total.selfSamples,
+                        percent(total.selfSamples, all), percent(total.totalSamples, all));
+            }
+        } else {
+            rows.sort((a, b) -> Long.compare(b.getValue().selfNanos, a.getValue().selfNanos));
+            report.printf("%-40s %10s %12s %12s%n", "function", "calls", "self ms", "total ms");
+            for (Map.Entry<String, Totals> row : rows) {
+                Totals total = row.getValue();
+                report.printf("%-40s %10d %12.3f %12.3f%n", row.getKey(), total.calls,
+                        total.selfNanos / 1e6, total.totalNanos / 1e6);
+            }
+        }
+        report.flush();
+    }
+
+    private static double percent(long part, long all) {
+        return all == 0 ? 0 : 100.0 * part / all;
+    }
+
+    // active counts the frames of each function on the path to node, so a
+    // recursive function's total isn't counted once per level
+    private long walk(Node node, String path, Map<String, Integer> active, Map<String, Totals> totals,
+                      Writer out) throws IOException {
+        Totals total = totals.computeIfAbsent(node.name, name -> new Totals());
+        boolean outermost = active.merge(node.name, 1, Integer::sum) == 1;
+        total.calls += node.calls;
+        total.selfNanos += node.selfNanos;
+        total.selfSamples += node.samples;
+        if (outermost) total.totalNanos += node.totalNanos;
+
+        long samples = node.samples;
+        for (Node child : node.children.values()) {
+            samples += walk(child, path + ";" + child.name, active, totals, out);
+        }
+        if (outermost) total.totalSamples += samples;
+        active.merge(node.name, -1, Integer::sum);
+
+        long weight = sampling ? node.samples : node.selfNanos / 1000;
+        if (weight > 0) out.write(path + " " + weight + "\n");
+        return samples;
+    }
+
+}
@@ -0,0 +1,64 @@
+package lox;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Serves {@link RuntimeStats} at {@code http://localhost:port/metrics} in
+ * the Prometheus text format, one {@code jlox_<name>_total} counter each.
+ * Only the loopback address is bound.
+ */
+public class PrometheusExporter implements MetricsExporter {
+
+    private final int port;
+    private HttpServer server;
+
+    public PrometheusExporter(int port) {
+        this.port = port;
+    }
+
+    @Override
+    public void start(RuntimeStats stats) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> respond(exchange, stats));
+        server.start();
+    }
+
+    @Override
+    public void stop() {
+        if (server != null) server.stop(0);
+    }
+
+    private static void respond(HttpExchange exchange, RuntimeStats stats) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = format(stats.snapshot()).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    static String format(Map<String, Long> values) {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Long> value : values.entrySet()) {
+            String name = "jlox_" + value.getKey() + "_total";
+            text.append("# TYPE ").append(name).append(" counter\n");
+            text.append(name).append(' ').append(value.getValue()).append('\n');
+        }
+        return text.toString();
+    }
+
+}
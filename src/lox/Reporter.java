@@ -0,0 +1,93 @@
+package lox;
+
+import exceptions.RuntimeError;
+import model.Token;
+import model.TokenType;
+
+import java.io.PrintWriter;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Where one run's output and diagnostics go, and whether it has failed.
+ * The scanner, parser and resolver may report from several threads, and
+ * async tasks at run time.  A lock rather than synchronized keeps a
+ * virtual thread that reports from pinning its carrier.
+ */
+public class Reporter {
+
+    private final PrintWriter out;
+    private final PrintWriter err;
+    private volatile boolean hadError = false;
+    private volatile boolean hadRuntimeError = false;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public Reporter(PrintWriter out, PrintWriter err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    public static Reporter console() {
+        return new Reporter(new PrintWriter(System.out, true), new PrintWriter(System.err, true));
+    }
+
+    public PrintWriter out() {
+        return out;
+    }
+
+    public PrintWriter err() {
+        return err;
+    }
+
+    public boolean hadError() {
+        return hadError;
+    }
+
+    public boolean hadRuntimeError() {
+        return hadRuntimeError;
+    }
+
+    // The REPL keeps going after a bad line
+    public void clearError() {
+        hadError = false;
+    }
+
+    void error(Token token, String message) {
+        if (token.type == TokenType.EOF) {
+            report(token.line, " at end", message);
+        } else {
+            report(token.line, " at '" + token.lexeme + "'", message);
+        }
+    }
+
+    void error(int line, String message) {
+        report(line, "", message);
+    }
+
+    private void report(int line, String where, String message) {
+        lock.lock();
+        try {
+            err.println(
+                    "[line " + line + "] Error" + where + ": " + message);
+            hadError = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void runtimeError(RuntimeError error) {
+        if (Flight.ENABLED) Flight.error(error);
+        lock.lock();
+        try {
+            if (error.token == null) {
+                err.println(error.getMessage());
+            } else {
+                err.println(error.getMessage() +
+                        "\n[line " + error.token.line + "]");
+            }
+            hadRuntimeError = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
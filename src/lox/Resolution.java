@@ -0,0 +1,25 @@
+package lox;
+
+import model.Expr;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The resolver's scope depth for each local variable reference in one
+ * program.  Interpreters only read it, and lazily parsed bodies add to it,
+ * so one table can back any number of concurrent runs.
+ */
+public class Resolution {
+
+    private final Map<Expr, Integer> depths = new ConcurrentHashMap<>();
+
+    public void resolve(Expr expr, int depth) {
+        depths.put(expr, depth);
+    }
+
+    public Integer depthOf(Expr expr) {
+        return depths.get(expr);
+    }
+
+}
@@ -14,14 +14,59 @@ import java.util.Stack;
 
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
-    private final Interpreter interpreter;
+    private final Resolution resolution;
+    private final Reporter reporter;
     private final Stack<Map<String, Boolean>> scopes = new Stack<>();
 
     private FunctionType currentFunction = FunctionType.NONE;
     private ClassType currentClass = ClassType.NONE;
 
-    public Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    // Index of the scope holding the reductions of the innermost parallel
+    // for, or -1.  Variables in scopes below it are shared by the workers.
+    private int parallelScope = -1;
+    // Directly inside a parallel for body, not in a function declared there
+    private boolean parallelBody = false;
+
+    private int errors = 0;
+
+    public Resolver(Resolution resolution, Reporter reporter) {
+        this.resolution = resolution;
+        this.reporter = reporter;
+    }
+
+    // Snapshot of the enclosing scopes, used to resolve a LazyBody later on
+    private Resolver(Resolver enclosing) {
+        this.resolution = enclosing.resolution;
+        this.reporter = enclosing.reporter;
+        for (Map<String, Boolean> scope : enclosing.scopes) {
+            scopes.push(new HashMap<>(scope));
+        }
+        this.currentFunction = enclosing.currentFunction;
+        this.currentClass = enclosing.currentClass;
+        this.parallelScope = enclosing.parallelScope;
+    }
+
+    private void error(Token token, String message) {
+        errors++;
+        reporter.error(token, message);
+    }
+
+    private boolean deferBody(List<Stmt> body, List<Token> params, FunctionType type) {
+        if (!(body instanceof LazyBody) || ((LazyBody) body).isParsed()) return false;
+        ((LazyBody) body).deferResolution(new Resolver(this), params, type);
+        return true;
+    }
+
+    boolean resolveDeferred(List<Token> params, List<Stmt> body, FunctionType type) {
+        if (type != null) currentFunction = type;
+        beginScope();
+        for (Token param: params) {
+            declare(param);
+            define(param);
+        }
+        resolve(body);
+        endScope();
+        return errors == 0;
     }
 
     private void resolve(Stmt stmt) {
@@ -43,7 +88,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         Map<String, Boolean> scope = scopes.peek();
 
         if (scope.containsKey(token.lexeme)) {
-            Lox.error(token, "Already a variable with this name in this scope.");
+            error(token, "Already a variable with this name in this scope.");
         }
 
         scope.put(token.lexeme, false);
@@ -62,18 +107,30 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         scopes.pop();
     }
 
+    // -1 for a global
+    private int scopeOf(Token name) {
+        for (int i = scopes.size() - 1; i >= 0; --i) {
+            if (scopes.get(i).containsKey(name.lexeme)) return i;
+        }
+        return -1;
+    }
+
     private void resolveLocal(Expr expr, Token name) {
         for (int i = scopes.size() - 1; i >= 0; --i) {
             if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - i - 1);
+                resolution.resolve(expr, scopes.size() - i - 1);
                 return;
             }
         }
     }
 
     private void resolveFunction(Stmt.Function stmt, FunctionType type) {
+        if (!FunctionType.GETTER.equals(type) && deferBody(stmt.body, stmt.params, type)) return;
+
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
+        boolean enclosingParallelBody = parallelBody;
+        parallelBody = false;
 
         beginScope();
         for (Token param: stmt.params) {
@@ -85,17 +142,19 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         if (FunctionType.GETTER.equals(type)) {
             boolean hasReturn = false;
             for (Stmt statement : stmt.body) {
+                if (statement instanceof Stmt.Probe) statement = ((Stmt.Probe) statement).stmt;
                 hasReturn |= (statement instanceof Stmt.Return);
             }
 
             if (!hasReturn) {
-                Lox.error(stmt.name, "A class getter must have a return statement.");
+                error(stmt.name, "A class getter must have a return statement.");
             }
         }
 
         endScope();
 
         currentFunction = enclosingFunction;
+        parallelBody = enclosingParallelBody;
     }
 
     @Override
@@ -122,11 +181,11 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitThisExpr(Expr.This expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword,
+            error(expr.keyword,
                     "Can't use 'this' outside of a class.");
         }
         if (currentFunction == FunctionType.CLASS_STATIC) {
-            Lox.error(expr.keyword,
+            error(expr.keyword,
                     "Can't use 'this' in a static method.");
         }
 
@@ -137,10 +196,10 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitSuperExpr(Expr.Super expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword,
+            error(expr.keyword,
                     "Can't use 'super' outside of a class.");
         } else if (currentClass != ClassType.SUBCLASS) {
-            Lox.error(expr.keyword,
+            error(expr.keyword,
                     "Can't use 'super' in a class with no superclass.");
         }
         resolveLocal(expr, expr.keyword);
@@ -149,6 +208,10 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitSetExpr(Expr.Set expr) {
+        // Instances are plain maps unless the object model is concurrent
+        if (parallelScope >= 0 && !Sharing.ENABLED) {
+            error(expr.name, "Can't set a field inside a parallel for unless -Djlox.objects=concurrent is set.");
+        }
         resolve(expr.value);
         resolve(expr.object);
         return null;
@@ -156,6 +219,10 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitLambdaExpr(Expr.Lambda expr) {
+        if (deferBody(expr.body, expr.params, null)) return null;
+
+        boolean enclosingParallelBody = parallelBody;
+        parallelBody = false;
         beginScope();
         for (Token param: expr.params) {
             declare(param);
@@ -163,6 +230,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         }
         resolve(expr.body);
         endScope();
+        parallelBody = enclosingParallelBody;
         return null;
     }
 
@@ -183,6 +251,18 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitAsyncExpr(Expr.Async expr) {
+        resolve(expr.call);
+        return null;
+    }
+
+    @Override
+    public Void visitAwaitExpr(Expr.Await expr) {
+        resolve(expr.value);
+        return null;
+    }
+
     @Override
     public Void visitTernaryExpr(Expr.Ternary expr) {
         resolve(expr.cond);
@@ -195,7 +275,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitVariableExpr(Expr.Variable expr) {
         if (!scopes.empty() &&
         Boolean.FALSE.equals(scopes.peek().get(expr.name.lexeme))) {
-            Lox.error(expr.name,
+            error(expr.name,
                     "Can't read local variable in its own initializer.");
         }
 
@@ -206,6 +286,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
+        if (parallelScope >= 0 && scopeOf(expr.name) < parallelScope) {
+            error(expr.name, "Can't assign to a variable from outside a parallel for unless it is a reduction.");
+        }
         resolveLocal(expr, expr.name);
         return null;
     }
@@ -234,11 +317,14 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         if (currentFunction == FunctionType.NONE) {
-            Lox.error(stmt.keyword, "Can't return from top-level code.");
+            error(stmt.keyword, "Can't return from top-level code.");
+        }
+        if (parallelBody) {
+            error(stmt.keyword, "Can't return from a parallel for.");
         }
         if (stmt.value != null) {
             if (currentFunction == FunctionType.INITIALIZER) {
-                Lox.error(stmt.keyword,
+                error(stmt.keyword,
                         "Can't return a value from an initializer.");
             }
             resolve(stmt.value);
@@ -280,7 +366,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         if (stmt.superclass != null &&
             stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
-            Lox.error(stmt.superclass.name,
+            error(stmt.superclass.name,
                     "A class cannot inherit from itself.");
         }
 
@@ -300,7 +386,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             FunctionType declaration = FunctionType.CLASS_STATIC;
 
             if (ClassConstant.INIT.equals(method.name.lexeme)) {
-                Lox.error(method.name,
+                error(method.name,
                         "The name of a static method can't be 'init'.");
             }
 
@@ -313,7 +399,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             FunctionType declaration = FunctionType.GETTER;
 
             if (ClassConstant.INIT.equals(method.name.lexeme)) {
-                Lox.error(method.name,
+                error(method.name,
                         "The name of a class getter can't be 'init'.");
             }
 
@@ -368,4 +454,44 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitLogicStmt(Stmt.Logic stmt) {
         return null;
     }
+
+    @Override
+    public Void visitProbeStmt(Stmt.Probe stmt) {
+        resolve(stmt.stmt);
+        return null;
+    }
+
+    @Override
+    public Void visitParallelForStmt(Stmt.ParallelFor stmt) {
+        resolve(stmt.lower);
+        resolve(stmt.upper);
+        resolve(stmt.step);
+        for (Expr.Variable target : stmt.targets) {
+            if (parallelScope >= 0 && scopeOf(target.name) < parallelScope) {
+                error(target.name, "Can't reduce into a variable from outside the enclosing parallel for.");
+            }
+            resolve(target);
+        }
+
+        int enclosingScope = parallelScope;
+        boolean enclosingBody = parallelBody;
+        // Each worker's private copies of the reductions, then one scope per iteration
+        beginScope();
+        parallelScope = scopes.size() - 1;
+        parallelBody = true;
+        for (Expr.Variable target : stmt.targets) {
+            declare(target.name);
+            define(target.name);
+        }
+        beginScope();
+        declare(stmt.name);
+        define(stmt.name);
+        resolve(stmt.body);
+        endScope();
+        endScope();
+        parallelScope = enclosingScope;
+        parallelBody = enclosingBody;
+        return null;
+    }
+
 }
@@ -0,0 +1,93 @@
+package lox;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters across every interpreter in the JVM, for watching a long-running
+ * jlox such as a {@link LoxServer}.  They stay at zero until
+ * {@link #enable()}, which also registers them as an MXBean; until then
+ * each hook is a single branch.  LongAdders keep concurrent interpreters
+ * from contending on the same counter.
+ */
+public class RuntimeStats implements RuntimeStatsMXBean {
+
+    public static final String OBJECT_NAME = "lox:type=RuntimeStats";
+
+    static final LongAdder ENVIRONMENTS = new LongAdder();
+    static final LongAdder BOUND_METHODS = new LongAdder();
+    static final LongAdder INSTANCES = new LongAdder();
+    static final LongAdder CALLS = new LongAdder();
+    static final LongAdder RETURNS = new LongAdder();
+    static final LongAdder CONCATENATIONS = new LongAdder();
+
+    // Only ever set before the scripts to be counted start
+    static boolean enabled = false;
+
+    private static final RuntimeStats INSTANCE = new RuntimeStats();
+
+    private RuntimeStats() {
+    }
+
+    public static synchronized RuntimeStats enable() {
+        if (!enabled) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+            } catch (InstanceAlreadyExistsException e) {
+                // Registered by another class loader's copy; ours still counts
+            } catch (JMException e) {
+                throw new IllegalStateException("Can't register " + OBJECT_NAME + ".", e);
+            }
+            enabled = true;
+        }
+        return INSTANCE;
+    }
+
+    // Every counter by its metric name, in a fixed order
+    public Map<String, Long> snapshot() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        values.put("environments", getEnvironments());
+        values.put("bound_methods", getBoundMethods());
+        values.put("instances", getInstances());
+        values.put("calls", getCalls());
+        values.put("returns", getReturns());
+        values.put("concatenations", getConcatenations());
+        return values;
+    }
+
+    @Override
+    public long getEnvironments() {
+        return ENVIRONMENTS.sum();
+    }
+
+    @Override
+    public long getBoundMethods() {
+        return BOUND_METHODS.sum();
+    }
+
+    @Override
+    public long getInstances() {
+        return INSTANCES.sum();
+    }
+
+    @Override
+    public long getCalls() {
+        return CALLS.sum();
+    }
+
+    @Override
+    public long getReturns() {
+        return RETURNS.sum();
+    }
+
+    @Override
+    public long getConcatenations() {
+        return CONCATENATIONS.sum();
+    }
+
+}
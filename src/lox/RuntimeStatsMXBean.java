@@ -0,0 +1,21 @@
+package lox;
+
+/**
+ * The counters of {@link RuntimeStats}, as seen over JMX under
+ * {@link RuntimeStats#OBJECT_NAME}.
+ */
+public interface RuntimeStatsMXBean {
+
+    long getEnvironments();
+
+    long getBoundMethods();
+
+    long getInstances();
+
+    long getCalls();
+
+    long getReturns();
+
+    long getConcatenations();
+
+}
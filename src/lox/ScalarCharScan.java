@@ -0,0 +1,38 @@
+package lox;
+
+class ScalarCharScan extends CharScan {
+
+    @Override
+    int skipBlanks(char[] src, int from, int to) {
+        while (from < to && isBlank(src[from])) from++;
+        return from;
+    }
+
+    @Override
+    int identifierEnd(char[] src, int from, int to) {
+        while (from < to && isAlphaNumeric(src[from])) from++;
+        return from;
+    }
+
+    @Override
+    int digitsEnd(char[] src, int from, int to) {
+        while (from < to && isDigit(src[from])) from++;
+        return from;
+    }
+
+    @Override
+    int indexOf(char[] src, int from, int to, char c) {
+        while (from < to && src[from] != c) from++;
+        return from;
+    }
+
+    @Override
+    int count(char[] src, int from, int to, char c) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (src[i] == c) count++;
+        }
+        return count;
+    }
+
+}
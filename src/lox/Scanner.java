@@ -2,19 +2,36 @@ package lox;
 
 import exceptions.ScannerException;
 import model.Token;
+import model.TokenBuffer;
 import model.TokenType;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 public class Scanner {
 
     private static final Map<String, TokenType> keywords;
 
-    private final String source;
+    // Perfect hash over `keywords`, see keywordHash()
+    private static final String[] KEYWORD_NAMES = new String[32];
+    private static final TokenType[] KEYWORD_TYPES = new TokenType[32];
+
+    private static final int PARALLEL_MIN_CHARS = 256 * 1024;
+
+    private final CharSequence source;
+    // Set for a MappedSource, whose end is only found by decoding up to it
+    private final MappedSource mapped;
+    private final Reporter reporter;
     private final List<Token> tokens = new ArrayList<>();
+    private TokenBuffer buffer;
+
+    // Copy of the source for the CharScan fast path, see useBulkScan()
+    private char[] chars;
+    private final CharScan charScan = CharScan.INSTANCE;
 
     private int current = 0;
     private int line = 1;
@@ -22,6 +39,11 @@ public class Scanner {
 
     private int commentNest = 0;
 
+    // Chunk scanners stop at the first token boundary after `end`
+    // and hold their errors back until the chunk is known to be valid.
+    private final int end;
+    private final List<ScanError> deferredErrors;
+
     static {
         keywords = new HashMap<>();
         keywords.put("and",     TokenType.AND);
@@ -42,10 +64,48 @@ public class Scanner {
         keywords.put("while",   TokenType.WHILE);
         keywords.put("break",   TokenType.BREAK);
         keywords.put("continue",TokenType.CONTINUE);
+
+        for (Map.Entry<String, TokenType> keyword : keywords.entrySet()) {
+            String name = keyword.getKey();
+            int slot = keywordHash(name.charAt(0), name.charAt(1), name.length());
+            if (KEYWORD_NAMES[slot] != null) {
+                throw new ExceptionInInitializerError(
+                        "Keywords '" + name + "' and '" + KEYWORD_NAMES[slot] + "' collide.");
+            }
+            KEYWORD_NAMES[slot] = name;
+            KEYWORD_TYPES[slot] = keyword.getValue();
+        }
+    }
+
+    // Collision-free for the keyword set above; every keyword has at least two chars
+    private static int keywordHash(char first, char second, int length) {
+        return (first * 4 + second * 3 + length) & 31;
     }
 
-    Scanner(String source) {
+    Scanner(CharSequence source, Reporter reporter) {
         this.source = source;
+        this.mapped = source instanceof MappedSource ? (MappedSource) source : null;
+        this.reporter = reporter;
+        this.end = Integer.MAX_VALUE;
+        this.deferredErrors = null;
+    }
+
+    private Scanner(CharSequence source, Reporter reporter, int from, int to, int line, int commentNest) {
+        this.source = source;
+        this.mapped = null;
+        this.reporter = reporter;
+        this.current = from;
+        this.end = to;
+        this.line = line;
+        this.commentNest = commentNest;
+        this.deferredErrors = new ArrayList<>();
+    }
+
+    // Skip whitespace and comments and find token ends a block of chars at
+    // a time.  Costs one char[] copy of the source.
+    Scanner useBulkScan() {
+        if (source instanceof String) chars = ((String) source).toCharArray();
+        return this;
     }
 
     public List<Token> scanTokens() {
@@ -57,6 +117,119 @@ public class Scanner {
         return tokens;
     }
 
+    // Same tokens as scanTokens(), stored compactly without per-token objects
+    public TokenBuffer scanTokenBuffer() {
+        buffer = new TokenBuffer(source);
+        while (!isAtEnd()) {
+            start = current;
+            scanToken();
+        }
+        buffer.add(TokenType.EOF, current, 0, line);
+        return buffer;
+    }
+
+    // Pull interface for StreamingTokens: scans just far enough to return
+    // the next token, and lets a MappedSource drop what lies behind it.
+    Token nextToken() {
+        while (tokens.isEmpty()) {
+            if (mapped != null) mapped.release(current);
+            if (isAtEnd()) return new Token(TokenType.EOF, "", null, line);
+            start = current;
+            scanToken();
+        }
+        Token token = tokens.get(0);
+        tokens.clear();
+        return token;
+    }
+
+    private Scanner withChars(char[] chars) {
+        this.chars = chars;
+        return this;
+    }
+
+    private Scanner scanChunk() {
+        while (!isAtEnd() && (current < end || commentNest > 0)) {
+            start = current;
+            scanToken();
+        }
+        return this;
+    }
+
+    // Same tokens, lines and errors as scanTokens(), but the source is cut
+    // at newlines and the pieces are scanned concurrently.  Every chunk is
+    // scanned speculatively as if it started outside any string or comment;
+    // a chunk whose predecessor did not end exactly at its first character
+    // with no open comment is scanned again from where the predecessor ended.
+    public List<Token> scanTokensParallel() {
+        if (!(source instanceof String) || source.length() < PARALLEL_MIN_CHARS) return scanTokens();
+        String text = (String) source;
+
+        int pieces = ForkJoinPool.getCommonPoolParallelism() * 4;
+        List<Integer> cuts = new ArrayList<>();
+        cuts.add(0);
+        for (int i = 1; i < pieces; i++) {
+            int cut = text.indexOf('\n', (int) ((long) text.length() * i / pieces)) + 1;
+            if (cut <= 0) break;
+            if (cut > cuts.get(cuts.size() - 1)) cuts.add(cut);
+        }
+        cuts.add(text.length());
+        int chunks = cuts.size() - 1;
+
+        int[] newlines = IntStream.range(0, chunks).parallel().map(i -> {
+            int count = 0;
+            for (int at = cuts.get(i); at < cuts.get(i + 1); at++) {
+                if (text.charAt(at) == '\n') count++;
+            }
+            return count;
+        }).toArray();
+        int[] lines = new int[chunks];
+        lines[0] = 1;
+        for (int i = 1; i < chunks; i++) lines[i] = lines[i - 1] + newlines[i - 1];
+
+        Scanner[] scanned = IntStream.range(0, chunks).parallel()
+                .mapToObj(i -> new Scanner(text, reporter, cuts.get(i), cuts.get(i + 1), lines[i], 0).withChars(chars).scanChunk())
+                .toArray(Scanner[]::new);
+
+        Scanner previous = null;
+        for (int i = 0; i < chunks; i++) {
+            Scanner chunk = scanned[i];
+            if (previous != null &&
+                    (previous.current != cuts.get(i) || previous.commentNest != 0)) {
+                chunk = new Scanner(text, reporter, previous.current, cuts.get(i + 1),
+                        previous.line, previous.commentNest).withChars(chars).scanChunk();
+            }
+            tokens.addAll(chunk.tokens);
+            for (ScanError error : chunk.deferredErrors) {
+                reporter.error(error.line, error.message);
+            }
+            previous = chunk;
+        }
+        tokens.add(new Token(TokenType.EOF, "", null, previous.line));
+        return tokens;
+    }
+
+    private static class ScanError {
+        final int line;
+        final String message;
+
+        ScanError(int line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+    }
+
+    private void error(int line, String message) {
+        if (deferredErrors != null) {
+            deferredErrors.add(new ScanError(line, message));
+        } else {
+            reporter.error(line, message);
+        }
+    }
+
+    private String substring(int from, int to) {
+        return source.subSequence(from, to).toString();
+    }
+
     private char advance() {
         return source.charAt(current++);
     }
@@ -67,12 +240,17 @@ public class Scanner {
     }
 
     private char peek(int offset) {
-        if (current + offset >= source.length()) return '\0';
+        if (isAtEnd(current + offset)) return '\0';
         return source.charAt(current + offset);
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return isAtEnd(current);
+    }
+
+    private boolean isAtEnd(int index) {
+        if (mapped != null) return mapped.isAtEnd(index);
+        return index >= source.length();
     }
 
     private boolean isAlpha(char c) {
@@ -101,40 +279,75 @@ public class Scanner {
     }
 
     private void addToken(TokenType type, Object literal) {
+        if (buffer != null) {
+            if (commentNest == 0) buffer.add(type, start, current - start, line);
+            return;
+        }
         if (commentNest == 0) {
-            String text = source.substring(start, current);
+            String text = substring(start, current);
             tokens.add(new Token(type, text, literal, line));
         }
     }
 
     private void string() {
+        if (chars != null) {
+            int quote = charScan.indexOf(chars, current, chars.length, '"');
+            line += charScan.count(chars, current, quote, '\n');
+            current = quote;
+        }
         while (!isAtEnd() && peek() != '"') {
             if (peek() == '\n') ++line;
             advance();
         }
         if (isAtEnd()) {
-            Lox.error(line, "Unterminated string.");
+            error(line, "Unterminated string.");
             return;
         }
 
         advance();
-        String value = source.substring(start + 1, current - 1);
+        if (buffer != null) {
+            addToken(TokenType.STRING);
+            return;
+        }
+        String value = substring(start + 1, current - 1);
         addToken(TokenType.STRING, value);
     }
 
     private void number() {
-        while (isDigit(peek())) advance();
-        if (peek() == '.' && isDigit(peek(1)))
-            advance();
-        while (isDigit(peek())) advance();
-        addToken(TokenType.NUMBER, Double.parseDouble(source.substring(start, current)));
+        if (chars != null) {
+            current = charScan.digitsEnd(chars, current, chars.length);
+            if (peek() == '.' && isDigit(peek(1))) {
+                current = charScan.digitsEnd(chars, current + 1, chars.length);
+            }
+        } else {
+            while (isDigit(peek())) advance();
+            if (peek() == '.' && isDigit(peek(1)))
+                advance();
+            while (isDigit(peek())) advance();
+        }
+        if (buffer != null) {
+            addToken(TokenType.NUMBER);
+            return;
+        }
+        addToken(TokenType.NUMBER, Double.parseDouble(substring(start, current)));
     }
 
     private void identifier() {
+        if (chars != null) current = charScan.identifierEnd(chars, current, chars.length);
         while (isAlphaNumeric(peek())) advance();
-        String text = source.substring(start, current);
-        TokenType type = keywords.getOrDefault(text, TokenType.IDENTIFIER);
-        addToken(type);
+        addToken(keyword(start, current));
+    }
+
+    private TokenType keyword(int from, int to) {
+        int length = to - from;
+        if (length < 2) return TokenType.IDENTIFIER;
+        int slot = keywordHash(source.charAt(from), source.charAt(from + 1), length);
+        String name = KEYWORD_NAMES[slot];
+        if (name == null || name.length() != length) return TokenType.IDENTIFIER;
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) != source.charAt(from + i)) return TokenType.IDENTIFIER;
+        }
+        return KEYWORD_TYPES[slot];
     }
 
     private void scanToken() {
@@ -194,6 +407,7 @@ public class Scanner {
                 break;
             case '/':
                 if (match('/')) {
+                    if (chars != null) current = charScan.indexOf(chars, current, chars.length, '\n');
                     while (!isAtEnd() && peek() != '\n') advance();
                 } else if (match('*')) {
                     commentNest++;
@@ -204,6 +418,7 @@ public class Scanner {
             case ' ':
             case '\t':
             case '\r':
+                if (chars != null) current = charScan.skipBlanks(chars, current, chars.length);
                 break;
             case '\n':
                 ++line;
@@ -217,7 +432,7 @@ public class Scanner {
                 } else if (isAlpha(c)) {
                     identifier();
                 } else {
-                    Lox.error(line, "Unexpected character.");
+                    error(line, "Unexpected character.");
                 }
                 // throw new ScannerException(line, "Unexpected character.");
         }
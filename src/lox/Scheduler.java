@@ -0,0 +1,53 @@
+package lox;
+
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * Time-slices scripts over a fixed number of running slots.  A script holds
+ * a slot while it runs and, every {@code slice} safepoints, hands it to the
+ * longest waiting script if there is one.  Safepoints are loop back-edges
+ * and function entries, counted down by {@link Interpreter#tick()}.
+ *
+ * <p>Each script keeps its own thread while it waits for a slot; give the
+ * scripts virtual threads to multiplex thousands of them.
+ */
+public class Scheduler {
+
+    public static final int DEFAULT_SLICE = 10_000;
+
+    private final Semaphore slots;
+    private final int slice;
+
+    public Scheduler(int slots, int slice) {
+        if (slots < 1 || slice < 1) {
+            throw new IllegalArgumentException("A scheduler needs at least one slot and a slice of at least 1.");
+        }
+        this.slots = new Semaphore(slots, true);
+        this.slice = slice;
+    }
+
+    int slice() {
+        return slice;
+    }
+
+    // Runs script on the calling thread once a slot is free
+    <T> T run(Interpreter interpreter, Supplier<T> script) {
+        slots.acquireUninterruptibly();
+        interpreter.schedule(this);
+        try {
+            return script.get();
+        } finally {
+            interpreter.schedule(null);
+            slots.release();
+        }
+    }
+
+    // The semaphore is fair, so this goes to the back of the queue
+    void yield() {
+        if (!slots.hasQueuedThreads()) return;
+        slots.release();
+        slots.acquireUninterruptibly();
+    }
+
+}
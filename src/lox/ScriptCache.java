@@ -0,0 +1,194 @@
+package lox;
+
+import model.Expr;
+import model.FlatAst;
+import model.Stmt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A resolved program saved as a {@code .loxc} file: the {@link FlatAst}
+ * arrays, its constant pool and the resolver's node depths, stamped with
+ * the SHA-256 of the source.  Token lines travel inside the node array, so
+ * runtime errors still point at the right source line.
+ */
+public class ScriptCache {
+
+    private static final int MAGIC = 0x4c4f5843; // "LOXC"
+    private static final int VERSION = 2;
+
+    private static final byte STRING = 0;
+    private static final byte NUMBER = 1;
+    private static final byte BOOLEAN = 2;
+
+    private final byte[] hash;
+    private final Path file;
+
+    public ScriptCache(Path source, byte[] sourceBytes, Path cacheDir) {
+        this.hash = sha256(sourceBytes);
+        if (cacheDir != null) {
+            this.file = cacheDir.resolve(hex(hash) + ".loxc");
+        } else {
+            this.file = source.resolveSibling(source.getFileName() + "c");
+        }
+    }
+
+    static byte[] sha256(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String hex(byte[] bytes) {
+        char[] digits = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            digits[i * 2] = Character.forDigit((bytes[i] >> 4) & 0xf, 16);
+            digits[i * 2 + 1] = Character.forDigit(bytes[i] & 0xf, 16);
+        }
+        return new String(digits);
+    }
+
+    // Returns null when there is no cache for this exact source
+    public List<Stmt> load(Resolution resolution) {
+        if (!Files.isRegularFile(file)) return null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.remaining() < 8 + hash.length) return null;
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) return null;
+            byte[] stored = new byte[hash.length];
+            in.get(stored);
+            if (!Arrays.equals(stored, hash)) return null;
+
+            return readProgram(in, resolution).statements();
+        } catch (IOException | RuntimeException e) {
+            // A truncated or foreign file is just a cache miss
+            return null;
+        }
+    }
+
+    // Reads what writeProgram wrote.  Resolver depths are added to
+    // resolution as the nodes they belong to are decoded.
+    static FlatAst readProgram(ByteBuffer in, Resolution resolution) {
+        int root = in.getInt();
+        int[] nodes = new int[in.getInt()];
+        in.asIntBuffer().get(nodes);
+        in.position(in.position() + nodes.length * 4);
+
+        Object[] constants = new Object[in.getInt()];
+        for (int i = 0; i < constants.length; i++) {
+            constants[i] = readConstant(in);
+        }
+
+        // Sorted (offset, depth) pairs
+        int[] offsets = new int[in.getInt()];
+        int[] depths = new int[offsets.length];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = in.getInt();
+            depths[i] = in.getInt();
+        }
+
+        FlatAst flat = new FlatAst(nodes, constants, root);
+        flat.onDecode((node, offset) -> {
+            if (!(node instanceof Expr)) return;
+            int at = Arrays.binarySearch(offsets, offset);
+            if (at >= 0) resolution.resolve((Expr) node, depths[at]);
+        });
+        return flat;
+    }
+
+    private static Object readConstant(ByteBuffer in) {
+        byte tag = in.get();
+        switch (tag) {
+            case STRING:
+                byte[] utf8 = new byte[in.getInt()];
+                in.get(utf8);
+                return new String(utf8, StandardCharsets.UTF_8);
+            case NUMBER:
+                return in.getDouble();
+            case BOOLEAN:
+                return in.get() != 0;
+            default:
+                throw new IllegalStateException("Unknown constant tag " + tag + ".");
+        }
+    }
+
+    // Best effort: a cache that can't be written only costs the next run a parse
+    public void store(List<Stmt> statements, Resolution resolution) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.write(hash);
+            writeProgram(out, statements, resolution::depthOf);
+            out.flush();
+
+            Path parent = file.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temp = Files.createTempFile(parent, ".loxc", ".tmp");
+            Files.write(temp, bytes.toByteArray());
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // Leave the previous cache, if any, in place
+        }
+    }
+
+    // The FlatAst of statements plus the resolver depths of its nodes
+    static void writeProgram(DataOutputStream out, List<Stmt> statements, Function<Expr, Integer> depths)
+        throws IOException {
+        List<int[]> resolved = new ArrayList<>();
+        FlatAst flat = FlatAst.encode(statements, (node, offset) -> {
+            if (!(node instanceof Expr)) return;
+            Integer depth = depths.apply((Expr) node);
+            if (depth != null) resolved.add(new int[] {offset, depth});
+        });
+        resolved.sort((a, b) -> Integer.compare(a[0], b[0]));
+
+        out.writeInt(flat.root());
+        out.writeInt(flat.nodes().length);
+        for (int value : flat.nodes()) out.writeInt(value);
+        out.writeInt(flat.constants().length);
+        for (Object constant : flat.constants()) writeConstant(out, constant);
+        out.writeInt(resolved.size());
+        for (int[] pair : resolved) {
+            out.writeInt(pair[0]);
+            out.writeInt(pair[1]);
+        }
+    }
+
+    private static void writeConstant(DataOutputStream out, Object constant) throws IOException {
+        if (constant instanceof String) {
+            byte[] utf8 = ((String) constant).getBytes(StandardCharsets.UTF_8);
+            out.writeByte(STRING);
+            out.writeInt(utf8.length);
+            out.write(utf8);
+        } else if (constant instanceof Double) {
+            out.writeByte(NUMBER);
+            out.writeDouble((Double) constant);
+        } else if (constant instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) constant);
+        } else {
+            throw new IOException("Can't serialize constant " + constant + ".");
+        }
+    }
+
+}
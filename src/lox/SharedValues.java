@@ -0,0 +1,92 @@
+package lox;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The variables or fields of a shared environment or instance.  A
+ * ConcurrentHashMap can't hold null, so nil is stored as a sentinel.
+ */
+class SharedValues extends AbstractMap<String, Object> {
+
+    private static final Object NIL = new Object();
+
+    private final ConcurrentHashMap<String, Object> values;
+
+    SharedValues(Map<String, Object> from) {
+        values = new ConcurrentHashMap<>(Math.max(16, from.size() * 2));
+        for (Map.Entry<String, Object> entry : from.entrySet()) {
+            values.put(entry.getKey(), wrap(entry.getValue()));
+        }
+    }
+
+    private static Object wrap(Object value) {
+        return value == null ? NIL : value;
+    }
+
+    private static Object unwrap(Object value) {
+        return value == NIL ? null : value;
+    }
+
+    @Override
+    public Object get(Object key) {
+        return unwrap(values.get(key));
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return values.containsKey(key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        return unwrap(values.put(key, wrap(value)));
+    }
+
+    @Override
+    public Object remove(Object key) {
+        return unwrap(values.remove(key));
+    }
+
+    @Override
+    public int size() {
+        return values.size();
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String, Object>>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                Iterator<Entry<String, Object>> entries = values.entrySet().iterator();
+                return new Iterator<Entry<String, Object>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, Object> next() {
+                        Entry<String, Object> entry = entries.next();
+                        return new SimpleImmutableEntry<>(entry.getKey(), unwrap(entry.getValue()));
+                    }
+
+                    @Override
+                    public void remove() {
+                        entries.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return values.size();
+            }
+        };
+    }
+
+}
@@ -0,0 +1,68 @@
+package lox;
+
+import constant.ObjectModel;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Ownership of environments and instances under -Djlox.objects=concurrent.
+ * An object belongs to the thread that made it and keeps a plain map until
+ * it is published: handed to a task, a channel or a fork, or stored into
+ * something already shared.  Publishing swaps in a {@link SharedValues}
+ * for everything reachable, on the owning thread and before the hand-off,
+ * so the hand-off itself makes the new maps visible.  Everything reachable
+ * from a shared object is shared, so a walk can stop at one.
+ */
+class Sharing {
+
+    static final boolean ENABLED = ObjectModel.ACTIVE == ObjectModel.CONCURRENT;
+
+    private Sharing() {
+    }
+
+    static void publish(Object value) {
+        if (!ENABLED) return;
+        walk(value);
+    }
+
+    // Re-walks from an already shared root whose values were put in
+    // directly, as a Snapshot does
+    static void republish(Environment environment) {
+        if (!ENABLED) return;
+        for (Object value : environment.values().values()) walk(value);
+    }
+
+    private static void walk(Object value) {
+        Deque<Object> pending = new ArrayDeque<>();
+        push(pending, value);
+        while (!pending.isEmpty()) {
+            Object next = pending.pop();
+            if (next instanceof Environment) {
+                Environment environment = (Environment) next;
+                if (!environment.share()) continue;
+                push(pending, environment.enclosing);
+                for (Object child : environment.values().values()) push(pending, child);
+            } else if (next instanceof LoxInstance) {
+                LoxInstance instance = (LoxInstance) next;
+                if (!instance.share()) continue;
+                push(pending, instance.klass());
+                for (Object child : instance.fields().values()) push(pending, child);
+                if (instance instanceof LoxClass) {
+                    LoxClass klass = (LoxClass) instance;
+                    push(pending, klass.superclass());
+                    for (LoxFunction method : klass.methods().values()) push(pending, method);
+                }
+            } else if (next instanceof LoxFunction) {
+                push(pending, ((LoxFunction) next).closure());
+            }
+        }
+    }
+
+    private static void push(Deque<Object> pending, Object value) {
+        if (value instanceof Environment || value instanceof LoxInstance || value instanceof LoxFunction) {
+            pending.push(value);
+        }
+    }
+
+}
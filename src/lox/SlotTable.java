@@ -0,0 +1,205 @@
+package lox;
+
+import constant.ValueRepresentation;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Name-addressed variable storage backed by NaN-boxed {@code long} slots.
+ * References are kept in a side {@code Object[]} indexed by the slot
+ * handle, so storing a number never retains a {@link Double}.  The
+ * Interpreter reads and writes numbers through {@link #bits} and
+ * {@link #assignNumber}; going through the Map interface boxes them.
+ */
+public class SlotTable extends AbstractMap<String, Object> {
+
+    // Selected once per JVM with -Djlox.values=nanbox
+    static final boolean ENABLED = ValueRepresentation.ACTIVE == ValueRepresentation.NAN_BOXED;
+
+    private static final int LINEAR_LIMIT = 8;
+
+    // Most block scopes hold nothing, so the arrays come with the first name
+    private static final String[] NO_NAMES = new String[0];
+    private static final long[] NO_SLOTS = new long[0];
+    private static final Object[] NO_REFS = new Object[0];
+
+    private String[] names = NO_NAMES;
+    private long[] slots = NO_SLOTS;
+    private Object[] refs = NO_REFS;
+    private int size = 0;
+
+    private Map<String, Integer> index;
+
+    public static Map<String, Object> newValueMap() {
+        if (ENABLED) {
+            return new SlotTable();
+        }
+        return new HashMap<>();
+    }
+
+    private int slotOf(Object name) {
+        if (index != null) {
+            Integer slot = index.get(name);
+            return slot == null ? -1 : slot;
+        }
+        for (int i = 0; i < size; i++) {
+            if (names[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    private int allocate(String name) {
+        if (size == names.length) {
+            int capacity = size == 0 ? 4 : size * 2;
+            names = Arrays.copyOf(names, capacity);
+            slots = Arrays.copyOf(slots, capacity);
+            refs = Arrays.copyOf(refs, capacity);
+        }
+        names[size] = name;
+        if (index != null) {
+            index.put(name, size);
+        } else if (size == LINEAR_LIMIT) {
+            index = new HashMap<>();
+            for (int i = 0; i <= size; i++) index.put(names[i], i);
+        }
+        return size++;
+    }
+
+    private void store(int slot, Object value) {
+        if (value instanceof Double) {
+            slots[slot] = NanBox.number((Double) value);
+            refs[slot] = null;
+        } else if (value instanceof Boolean) {
+            slots[slot] = NanBox.bool((Boolean) value);
+            refs[slot] = null;
+        } else if (value == null) {
+            slots[slot] = NanBox.NIL;
+            refs[slot] = null;
+        } else {
+            slots[slot] = NanBox.ref(slot);
+            refs[slot] = value;
+        }
+    }
+
+    // The raw slot, or NanBox.NIL if name isn't here
+    long bits(String name) {
+        int slot = slotOf(name);
+        return slot < 0 ? NanBox.NIL : slots[slot];
+    }
+
+    void defineNumber(String name, double value) {
+        int slot = slotOf(name);
+        if (slot < 0) slot = allocate(name);
+        slots[slot] = NanBox.number(value);
+        refs[slot] = null;
+    }
+
+    // false, and nothing stored, if name isn't here
+    boolean assignNumber(String name, double value) {
+        int slot = slotOf(name);
+        if (slot < 0) return false;
+        slots[slot] = NanBox.number(value);
+        refs[slot] = null;
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object name) {
+        return slotOf(name) >= 0;
+    }
+
+    @Override
+    public Object get(Object name) {
+        int slot = slotOf(name);
+        if (slot < 0) return null;
+        return NanBox.decode(slots[slot], refs);
+    }
+
+    @Override
+    public Object put(String name, Object value) {
+        int slot = slotOf(name);
+        Object previous = null;
+        if (slot < 0) {
+            slot = allocate(name);
+        } else {
+            previous = NanBox.decode(slots[slot], refs);
+        }
+        store(slot, value);
+        return previous;
+    }
+
+    @Override
+    public Object remove(Object name) {
+        int slot = slotOf(name);
+        if (slot < 0) return null;
+        Object previous = NanBox.decode(slots[slot], refs);
+        removeSlot(slot);
+        return previous;
+    }
+
+    // The last slot moves into the gap; a reference's handle is its slot
+    private void removeSlot(int slot) {
+        int last = --size;
+        if (index != null) index.remove(names[slot]);
+        if (slot != last) {
+            names[slot] = names[last];
+            slots[slot] = NanBox.isRef(slots[last]) ? NanBox.ref(slot) : slots[last];
+            refs[slot] = refs[last];
+            if (index != null) index.put(names[slot], slot);
+        }
+        names[last] = null;
+        refs[last] = null;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String, Object>>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return new Iterator<Entry<String, Object>>() {
+                    private int next = 0;
+                    private int last = -1;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < size;
+                    }
+
+                    @Override
+                    public Entry<String, Object> next() {
+                        if (next >= size) throw new NoSuchElementException();
+                        last = next++;
+                        return new SimpleImmutableEntry<>(names[last], NanBox.decode(slots[last], refs));
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (last < 0) throw new IllegalStateException();
+                        removeSlot(last);
+                        // The slot now holds what was the last entry
+                        next = last;
+                        last = -1;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,378 @@
+package lox;
+
+import constant.FunctionType;
+import constant.VariableValue;
+import model.FlatAst;
+import model.Stmt;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An image of the interpreter's globals: every environment, function,
+ * class and instance reachable from them.  Function declarations are kept
+ * as one {@link FlatAst} with their resolver depths and are only decoded
+ * when a function first runs, so loading an image costs about the same
+ * however large the prelude that built it was.
+ */
+public class Snapshot {
+
+    private static final int MAGIC = 0x4c4f5849; // "LOXI"
+    private static final int VERSION = 2;
+
+    private static final byte NIL = 0;
+    private static final byte FALSE = 1;
+    private static final byte TRUE = 2;
+    private static final byte NUMBER = 3;
+    private static final byte STRING = 4;
+    private static final byte UNINIT = 5;
+    private static final byte NATIVE = 6;
+    private static final byte FUNCTION = 7;
+    private static final byte CLASS = 8;
+    private static final byte INSTANCE = 9;
+
+    private static final int GLOBALS = 0;
+
+    // Objects in creation order: an environment after its enclosing one, a
+    // class after its superclass.
+    private final List<Environment> environments = new ArrayList<>();
+    private final List<Stmt> declarations = new ArrayList<>();
+    private final List<LoxFunction> functions = new ArrayList<>();
+    private final List<LoxClass> classes = new ArrayList<>();
+    private final List<LoxInstance> instances = new ArrayList<>();
+
+    private final Map<Object, Integer> ids = new IdentityHashMap<>();
+    private final Map<Stmt.Function, Integer> declarationIds = new IdentityHashMap<>();
+    private final Map<LoxCallable, String> nativeNames = new IdentityHashMap<>();
+    private final Deque<Object> pending = new ArrayDeque<>();
+
+    private Snapshot() {
+    }
+
+    public static void write(Interpreter interpreter, Path image) throws IOException {
+        Snapshot snapshot = new Snapshot();
+        for (Map.Entry<String, LoxCallable> entry : interpreter.natives.entrySet()) {
+            snapshot.nativeNames.put(entry.getValue(), entry.getKey());
+        }
+        snapshot.environment(interpreter.globals);
+        snapshot.trace();
+
+        try (OutputStream file = Files.newOutputStream(image)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+            snapshot.writeTo(out);
+            out.flush();
+        }
+    }
+
+    public static void read(Interpreter interpreter, Path image) throws IOException {
+        try (FileChannel channel = FileChannel.open(image, StandardOpenOption.READ)) {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.remaining() < 8 || in.getInt() != MAGIC) {
+                throw new IOException(image + " is not a jlox image.");
+            }
+            if (in.getInt() != VERSION) {
+                throw new IOException(image + " was written by another version of jlox.");
+            }
+            new Reader(in, interpreter).read();
+        } catch (BufferUnderflowException e) {
+            throw new IOException(image + " is truncated.", e);
+        }
+    }
+
+    private int environment(Environment environment) {
+        Integer id = ids.get(environment);
+        if (id != null) return id;
+        if (environment.enclosing != null) environment(environment.enclosing);
+        id = environments.size();
+        environments.add(environment);
+        ids.put(environment, id);
+        pending.add(environment);
+        return id;
+    }
+
+    private int function(LoxFunction function) {
+        Integer id = ids.get(function);
+        if (id != null) return id;
+        if (!declarationIds.containsKey(function.declaration())) {
+            declarationIds.put(function.declaration(), declarations.size());
+            declarations.add(function.declaration());
+        }
+        environment(function.closure());
+        id = functions.size();
+        functions.add(function);
+        ids.put(function, id);
+        return id;
+    }
+
+    private int klass(LoxClass klass) {
+        Integer id = ids.get(klass);
+        if (id != null) return id;
+        if (klass.superclass() != null) klass(klass.superclass());
+        id = classes.size();
+        classes.add(klass);
+        ids.put(klass, id);
+        pending.add(klass);
+        return id;
+    }
+
+    private int instance(LoxInstance instance) {
+        Integer id = ids.get(instance);
+        if (id != null) return id;
+        klass(instance.klass());
+        id = instances.size();
+        instances.add(instance);
+        ids.put(instance, id);
+        pending.add(instance);
+        return id;
+    }
+
+    private void reach(Object value) throws IOException {
+        if (value instanceof LoxFunction) {
+            function((LoxFunction) value);
+        } else if (value instanceof LoxClass) {
+            klass((LoxClass) value);
+        } else if (value instanceof LoxInstance) {
+            instance((LoxInstance) value);
+        } else if (value instanceof LoxCallable && !nativeNames.containsKey(value)) {
+            throw new IOException("Can't snapshot " + value + ".");
+        }
+    }
+
+    private void trace() throws IOException {
+        while (!pending.isEmpty()) {
+            Object next = pending.poll();
+            if (next instanceof Environment) {
+                for (Object value : ((Environment) next).values().values()) reach(value);
+            } else {
+                if (next instanceof LoxClass) {
+                    for (LoxFunction method : ((LoxClass) next).methods().values()) function(method);
+                }
+                for (Object value : ((LoxInstance) next).fields().values()) reach(value);
+            }
+        }
+    }
+
+    private void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+
+        out.writeInt(environments.size());
+        for (int i = 1; i < environments.size(); i++) {
+            Environment enclosing = environments.get(i).enclosing;
+            out.writeInt(enclosing == null ? -1 : ids.get(enclosing));
+        }
+
+        // Each function's nodes are only known to the resolution it was declared with
+        Set<Resolution> resolutions = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (LoxFunction function : functions) resolutions.add(function.resolution());
+        ScriptCache.writeProgram(out, declarations, expr -> {
+            for (Resolution resolution : resolutions) {
+                Integer depth = resolution.depthOf(expr);
+                if (depth != null) return depth;
+            }
+            return null;
+        });
+        out.writeInt(functions.size());
+        for (LoxFunction function : functions) {
+            out.writeInt(declarationIds.get(function.declaration()));
+            out.writeInt(ids.get(function.closure()));
+            out.writeByte(function.functionType.ordinal());
+        }
+
+        out.writeInt(classes.size());
+        for (LoxClass klass : classes) {
+            writeString(out, klass.name);
+            out.writeInt(klass.superclass() == null ? -1 : ids.get(klass.superclass()));
+        }
+
+        out.writeInt(instances.size());
+        for (LoxInstance instance : instances) {
+            out.writeInt(ids.get(instance.klass()));
+        }
+
+        for (Environment environment : environments) {
+            writeValues(out, environment.values());
+        }
+        for (LoxClass klass : classes) {
+            out.writeInt(klass.methods().size());
+            for (Map.Entry<String, LoxFunction> method : klass.methods().entrySet()) {
+                writeString(out, method.getKey());
+                out.writeInt(ids.get(method.getValue()));
+            }
+            writeValues(out, klass.fields());
+        }
+        for (LoxInstance instance : instances) {
+            writeValues(out, instance.fields());
+        }
+    }
+
+    private void writeValues(DataOutputStream out, Map<String, Object> values) throws IOException {
+        out.writeInt(values.size());
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            writeString(out, entry.getKey());
+            writeValue(out, entry.getValue());
+        }
+    }
+
+    private void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NIL);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Double) {
+            out.writeByte(NUMBER);
+            out.writeDouble((Double) value);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (value == VariableValue.UNINIT) {
+            out.writeByte(UNINIT);
+        } else if (value instanceof LoxFunction) {
+            out.writeByte(FUNCTION);
+            out.writeInt(ids.get(value));
+        } else if (value instanceof LoxClass) {
+            out.writeByte(CLASS);
+            out.writeInt(ids.get(value));
+        } else if (value instanceof LoxInstance) {
+            out.writeByte(INSTANCE);
+            out.writeInt(ids.get(value));
+        } else if (nativeNames.containsKey(value)) {
+            out.writeByte(NATIVE);
+            writeString(out, nativeNames.get(value));
+        } else {
+            throw new IOException("Can't snapshot " + value + ".");
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    private static class Reader {
+        private final ByteBuffer in;
+        private final Interpreter interpreter;
+
+        private Environment[] environments;
+        private LoxFunction[] functions;
+        private LoxClass[] classes;
+        private LoxInstance[] instances;
+
+        Reader(ByteBuffer in, Interpreter interpreter) {
+            this.in = in;
+            this.interpreter = interpreter;
+        }
+
+        void read() throws IOException {
+            environments = new Environment[in.getInt()];
+            environments[GLOBALS] = interpreter.globals;
+            for (int i = 1; i < environments.length; i++) {
+                int enclosing = in.getInt();
+                environments[i] = enclosing < 0 ? new Environment() : new Environment(environments[enclosing]);
+            }
+
+            Resolution resolution = interpreter.resolution();
+            List<Stmt> declarations = ScriptCache.readProgram(in, resolution).statements();
+            FunctionType[] types = FunctionType.values();
+            functions = new LoxFunction[in.getInt()];
+            for (int i = 0; i < functions.length; i++) {
+                Stmt.Function declaration = (Stmt.Function) declarations.get(in.getInt());
+                Environment closure = environments[in.getInt()];
+                functions[i] = new LoxFunction(declaration, closure, types[in.get()], resolution);
+            }
+
+            classes = new LoxClass[in.getInt()];
+            for (int i = 0; i < classes.length; i++) {
+                String name = readString();
+                int superclass = in.getInt();
+                classes[i] = new LoxClass(name, superclass < 0 ? null : classes[superclass], new HashMap<>());
+            }
+
+            instances = new LoxInstance[in.getInt()];
+            for (int i = 0; i < instances.length; i++) {
+                instances[i] = new LoxInstance(classes[in.getInt()]);
+            }
+
+            for (Environment environment : environments) {
+                readValues(environment.values());
+            }
+            for (LoxClass klass : classes) {
+                int methods = in.getInt();
+                for (int i = 0; i < methods; i++) {
+                    String name = readString();
+                    klass.methods().put(name, functions[in.getInt()]);
+                }
+                readValues(klass.fields());
+            }
+            for (LoxInstance instance : instances) {
+                readValues(instance.fields());
+            }
+            Sharing.republish(interpreter.globals);
+        }
+
+        private void readValues(Map<String, Object> values) throws IOException {
+            int count = in.getInt();
+            for (int i = 0; i < count; i++) {
+                String name = readString();
+                values.put(name, readValue());
+            }
+        }
+
+        private Object readValue() throws IOException {
+            byte tag = in.get();
+            switch (tag) {
+                case NIL:
+                    return null;
+                case FALSE:
+                    return false;
+                case TRUE:
+                    return true;
+                case NUMBER:
+                    return in.getDouble();
+                case STRING:
+                    return readString();
+                case UNINIT:
+                    return VariableValue.UNINIT;
+                case NATIVE:
+                    String name = readString();
+                    LoxCallable function = interpreter.natives.get(name);
+                    if (function == null) throw new IOException("Unknown native function '" + name + "'.");
+                    return function;
+                case FUNCTION:
+                    return functions[in.getInt()];
+                case CLASS:
+                    return classes[in.getInt()];
+                case INSTANCE:
+                    return instances[in.getInt()];
+                default:
+                    throw new IOException("Unknown value tag " + tag + ".");
+            }
+        }
+
+        private String readString() {
+            byte[] utf8 = new byte[in.getInt()];
+            in.get(utf8);
+            return new String(utf8, StandardCharsets.UTF_8);
+        }
+    }
+
+}
@@ -0,0 +1,53 @@
+package lox;
+
+import model.Token;
+import model.TokenStream;
+import model.TokenType;
+
+/**
+ * Tokens pulled from a {@link Scanner} as the {@link Parser} asks for them.
+ * Only a small window behind the furthest token read is kept, so this
+ * stream is not usable with lazy or parallel parsing, which jump back.
+ */
+class StreamingTokens implements TokenStream {
+
+    private static final int WINDOW = 64;
+
+    private final Scanner scanner;
+    private final Token[] window = new Token[WINDOW];
+    private int fetched = 0;
+    private int eof = -1;
+
+    StreamingTokens(Scanner scanner) {
+        this.scanner = scanner;
+    }
+
+    @Override
+    public int size() {
+        return eof < 0 ? Integer.MAX_VALUE : eof + 1;
+    }
+
+    @Override
+    public TokenType type(int index) {
+        return get(index).type;
+    }
+
+    @Override
+    public Token get(int index) {
+        if (eof >= 0 && index >= eof) return window[eof % WINDOW];
+        while (fetched <= index) {
+            Token token = scanner.nextToken();
+            window[fetched % WINDOW] = token;
+            if (token.type == TokenType.EOF) {
+                eof = fetched++;
+                return token;
+            }
+            fetched++;
+        }
+        if (index < fetched - WINDOW) {
+            throw new IllegalStateException("Token " + index + " is no longer buffered.");
+        }
+        return window[index % WINDOW];
+    }
+
+}
@@ -0,0 +1,54 @@
+package lox;
+
+import model.Token;
+import model.TokenStream;
+import model.TokenType;
+
+/**
+ * A read-only window [from, to) over a token list, terminated by a
+ * synthetic EOF so that a {@link Parser} can run over the slice alone.
+ */
+class TokenRange implements TokenStream {
+
+    private final TokenStream tokens;
+    private final int from;
+    private final int to;
+    private final Token eof;
+
+    TokenRange(TokenStream tokens, int from, int to) {
+        this.tokens = tokens;
+        this.from = from;
+        this.to = to;
+        this.eof = new Token(TokenType.EOF, "", null, tokens.line(to));
+    }
+
+    @Override
+    public TokenType type(int index) {
+        if (index == to - from) return TokenType.EOF;
+        return tokens.type(from + index);
+    }
+
+    @Override
+    public Token get(int index) {
+        if (index == to - from) return eof;
+        return tokens.get(from + index);
+    }
+
+    @Override
+    public int line(int index) {
+        if (index == to - from) return eof.line;
+        return tokens.line(from + index);
+    }
+
+    @Override
+    public String lexeme(int index) {
+        if (index == to - from) return eof.lexeme;
+        return tokens.lexeme(from + index);
+    }
+
+    @Override
+    public int size() {
+        return to - from + 1;
+    }
+
+}
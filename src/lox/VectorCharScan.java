@@ -0,0 +1,78 @@
+package lox;
+
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link CharScan} over {@link ShortVector} lanes.  Only loaded reflectively,
+ * so the rest of the interpreter runs without the incubator module.
+ */
+class VectorCharScan extends CharScan {
+
+    private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+
+    private final ScalarCharScan tail = new ScalarCharScan();
+
+    private static VectorMask<Short> between(ShortVector v, char low, char high) {
+        return v.compare(VectorOperators.GE, (short) low)
+                .and(v.compare(VectorOperators.LE, (short) high));
+    }
+
+    @Override
+    int skipBlanks(char[] src, int from, int to) {
+        for (; from + LANES <= to; from += LANES) {
+            ShortVector v = ShortVector.fromCharArray(SPECIES, src, from);
+            VectorMask<Short> blank = v.compare(VectorOperators.EQ, (short) ' ')
+                    .or(v.compare(VectorOperators.EQ, (short) '\t'))
+                    .or(v.compare(VectorOperators.EQ, (short) '\r'));
+            if (!blank.allTrue()) return from + blank.not().firstTrue();
+        }
+        return tail.skipBlanks(src, from, to);
+    }
+
+    @Override
+    int identifierEnd(char[] src, int from, int to) {
+        for (; from + LANES <= to; from += LANES) {
+            ShortVector v = ShortVector.fromCharArray(SPECIES, src, from);
+            VectorMask<Short> word = between(v, 'a', 'z')
+                    .or(between(v, 'A', 'Z'))
+                    .or(between(v, '0', '9'))
+                    .or(v.compare(VectorOperators.EQ, (short) '_'));
+            if (!word.allTrue()) return from + word.not().firstTrue();
+        }
+        return tail.identifierEnd(src, from, to);
+    }
+
+    @Override
+    int digitsEnd(char[] src, int from, int to) {
+        for (; from + LANES <= to; from += LANES) {
+            VectorMask<Short> digit = between(ShortVector.fromCharArray(SPECIES, src, from), '0', '9');
+            if (!digit.allTrue()) return from + digit.not().firstTrue();
+        }
+        return tail.digitsEnd(src, from, to);
+    }
+
+    @Override
+    int indexOf(char[] src, int from, int to, char c) {
+        for (; from + LANES <= to; from += LANES) {
+            VectorMask<Short> hit = ShortVector.fromCharArray(SPECIES, src, from)
+                    .compare(VectorOperators.EQ, (short) c);
+            if (hit.anyTrue()) return from + hit.firstTrue();
+        }
+        return tail.indexOf(src, from, to, c);
+    }
+
+    @Override
+    int count(char[] src, int from, int to, char c) {
+        int count = 0;
+        for (; from + LANES <= to; from += LANES) {
+            count += ShortVector.fromCharArray(SPECIES, src, from)
+                    .compare(VectorOperators.EQ, (short) c).trueCount();
+        }
+        return count + tail.count(src, from, to, c);
+    }
+
+}
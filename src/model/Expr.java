@@ -18,6 +18,8 @@ public abstract class Expr {
         R visitVariableExpr(Variable expr);
         R visitAssignExpr(Assign expr);
         R visitLogicalExpr(Logical expr);
+        R visitAsyncExpr(Async expr);
+        R visitAwaitExpr(Await expr);
     }
     public static class Binary extends Expr {
         public Binary(Expr left, Token operator, Expr right) {
@@ -219,6 +221,34 @@ public abstract class Expr {
         public final Expr left;
         public final Expr right;
     }
+    public static class Async extends Expr {
+        public Async(Token keyword, Expr.Call call) {
+            this.keyword = keyword;
+            this.call = call;
+        }
+
+        @Override
+        public<R> R accept(Visitor<R> visitor) {
+            return visitor.visitAsyncExpr(this);
+        }
+
+        public final Token keyword;
+        public final Expr.Call call;
+    }
+    public static class Await extends Expr {
+        public Await(Token keyword, Expr value) {
+            this.keyword = keyword;
+            this.value = value;
+        }
+
+        @Override
+        public<R> R accept(Visitor<R> visitor) {
+            return visitor.visitAwaitExpr(this);
+        }
+
+        public final Token keyword;
+        public final Expr value;
+    }
 
     public abstract <R> R accept(Visitor<R> visitor);
 }
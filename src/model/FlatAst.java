@@ -0,0 +1,610 @@
+package model;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Generated by tool.GenerateAst
+public class FlatAst {
+
+    public interface NodeListener {
+        void node(Object node, int offset);
+    }
+
+    public static final int EXPR_BINARY = 0;
+    public static final int EXPR_CALL = 1;
+    public static final int EXPR_GET = 2;
+    public static final int EXPR_THIS = 3;
+    public static final int EXPR_SUPER = 4;
+    public static final int EXPR_SET = 5;
+    public static final int EXPR_LAMBDA = 6;
+    public static final int EXPR_GROUPING = 7;
+    public static final int EXPR_LITERAL = 8;
+    public static final int EXPR_UNARY = 9;
+    public static final int EXPR_TERNARY = 10;
+    public static final int EXPR_VARIABLE = 11;
+    public static final int EXPR_ASSIGN = 12;
+    public static final int EXPR_LOGICAL = 13;
+    public static final int EXPR_ASYNC = 14;
+    public static final int EXPR_AWAIT = 15;
+    public static final int STMT_EXPRESSION = 16;
+    public static final int STMT_FUNCTION = 17;
+    public static final int STMT_RETURN = 18;
+    public static final int STMT_PRINT = 19;
+    public static final int STMT_VAR = 20;
+    public static final int STMT_BLOCK = 21;
+    public static final int STMT_CLASS = 22;
+    public static final int STMT_REPL = 23;
+    public static final int STMT_IF = 24;
+    public static final int STMT_WHILE = 25;
+    public static final int STMT_LOGIC = 26;
+    public static final int STMT_PARALLELFOR = 27;
+    public static final int STMT_PROBE = 28;
+    private static final int FIRST_STMT = 16;
+
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+    private final int[] nodes;
+    private final Object[] constants;
+    private final int root;
+
+    private NodeListener decodeListener;
+    private final List<Stmt> statements;
+
+    public FlatAst(int[] nodes, Object[] constants, int root) {
+        this.nodes = nodes;
+        this.constants = constants;
+        this.root = root;
+        this.statements = new NodeList<>(root);
+    }
+
+    public static FlatAst encode(List<Stmt> statements, NodeListener listener) {
+        Encoder encoder = new Encoder(listener);
+        int root = encoder.list(statements);
+        return new FlatAst(Arrays.copyOf(encoder.nodes, encoder.size),
+                encoder.constants.toArray(), root);
+    }
+
+    public int[] nodes() {
+        return nodes;
+    }
+
+    public Object[] constants() {
+        return constants;
+    }
+
+    public int root() {
+        return root;
+    }
+
+    // Called with every node as it is decoded, and its offset in nodes()
+    public FlatAst onDecode(NodeListener listener) {
+        this.decodeListener = listener;
+        return this;
+    }
+
+    // Nodes are decoded on first access and then kept, so walking the
+    // result twice sees the same objects.
+    public List<Stmt> statements() {
+        return statements;
+    }
+
+    private Token token(int at) {
+        if (nodes[at] < 0) return null;
+        return new Token(TOKEN_TYPES[nodes[at]], (String) constants[nodes[at + 1]], null, nodes[at + 2]);
+    }
+
+    private Object constant(int index) {
+        return index < 0 ? null : constants[index];
+    }
+
+    private List<Token> tokens(int list) {
+        List<Token> tokens = new ArrayList<>(nodes[list]);
+        for (int i = 0; i < nodes[list]; i++) tokens.add(token(list + 1 + i * 3));
+        return tokens;
+    }
+
+    private Object decode(int node) {
+        if (node < 0) return null;
+        Object decoded = nodes[node] < FIRST_STMT ? decodeExpr(node) : decodeStmt(node);
+        if (decodeListener != null) decodeListener.node(decoded, node);
+        return decoded;
+    }
+
+    private Expr expr(int node) {
+        return (Expr) decode(node);
+    }
+
+    private Stmt stmt(int node) {
+        return (Stmt) decode(node);
+    }
+
+    private Expr decodeExpr(int node) {
+        int at = node + 1;
+        switch (nodes[node]) {
+            case EXPR_BINARY:
+                return new Expr.Binary(expr(nodes[at]), token(at + 1), expr(nodes[at + 4]));
+            case EXPR_CALL:
+                return new Expr.Call(expr(nodes[at]), token(at + 1), new NodeList<>(nodes[at + 4]));
+            case EXPR_GET:
+                return new Expr.Get(expr(nodes[at]), token(at + 1));
+            case EXPR_THIS:
+                return new Expr.This(token(at));
+            case EXPR_SUPER:
+                return new Expr.Super(token(at), token(at + 3));
+            case EXPR_SET:
+                return new Expr.Set(expr(nodes[at]), token(at + 1), expr(nodes[at + 4]));
+            case EXPR_LAMBDA:
+                return new Expr.Lambda(token(at), tokens(nodes[at + 3]), new NodeList<>(nodes[at + 4]));
+            case EXPR_GROUPING:
+                return new Expr.Grouping(expr(nodes[at]));
+            case EXPR_LITERAL:
+                return new Expr.Literal(constant(nodes[at]));
+            case EXPR_UNARY:
+                return new Expr.Unary(token(at), expr(nodes[at + 3]));
+            case EXPR_TERNARY:
+                return new Expr.Ternary(expr(nodes[at]), expr(nodes[at + 1]), expr(nodes[at + 2]));
+            case EXPR_VARIABLE:
+                return new Expr.Variable(token(at));
+            case EXPR_ASSIGN:
+                return new Expr.Assign(token(at), expr(nodes[at + 3]));
+            case EXPR_LOGICAL:
+                return new Expr.Logical(token(at), expr(nodes[at + 3]), expr(nodes[at + 4]));
+            case EXPR_ASYNC:
+                return new Expr.Async(token(at), (Expr.Call) decode(nodes[at + 3]));
+            case EXPR_AWAIT:
+                return new Expr.Await(token(at), expr(nodes[at + 3]));
+            default:
+                throw new IllegalStateException("Not a Expr node: " + nodes[node]);
+        }
+    }
+
+    private Stmt decodeStmt(int node) {
+        int at = node + 1;
+        switch (nodes[node]) {
+            case STMT_EXPRESSION:
+                return new Stmt.Expression(expr(nodes[at]));
+            case STMT_FUNCTION:
+                return new Stmt.Function(token(at), tokens(nodes[at + 3]), new NodeList<>(nodes[at + 4]));
+            case STMT_RETURN:
+                return new Stmt.Return(token(at), expr(nodes[at + 3]));
+            case STMT_PRINT:
+                return new Stmt.Print(expr(nodes[at]));
+            case STMT_VAR:
+                return new Stmt.Var(token(at), expr(nodes[at + 3]));
+            case STMT_BLOCK:
+                return new Stmt.Block(new NodeList<>(nodes[at]));
+            case STMT_CLASS:
+                return new Stmt.Class(token(at), (Expr.Variable) decode(nodes[at + 3]), new NodeList<>(nodes[at + 4]), new NodeList<>(nodes[at + 5]), new NodeList<>(nodes[at + 6]));
+            case STMT_REPL:
+                return new Stmt.Repl(expr(nodes[at]));
+            case STMT_IF:
+                return new Stmt.If(expr(nodes[at]), stmt(nodes[at + 1]), stmt(nodes[at + 2]));
+            case STMT_WHILE:
+                return new Stmt.While(expr(nodes[at]), stmt(nodes[at + 1]), stmt(nodes[at + 2]));
+            case STMT_LOGIC:
+                return new Stmt.Logic(token(at));
+            case STMT_PARALLELFOR:
+                return new Stmt.ParallelFor(token(at), token(at + 3), expr(nodes[at + 6]), token(at + 7), expr(nodes[at + 10]), expr(nodes[at + 11]), tokens(nodes[at + 12]), new NodeList<>(nodes[at + 13]), stmt(nodes[at + 14]));
+            case STMT_PROBE:
+                return new Stmt.Probe(nodes[at], stmt(nodes[at + 1]));
+            default:
+                throw new IllegalStateException("Not a Stmt node: " + nodes[node]);
+        }
+    }
+
+    private class NodeList<T> extends AbstractList<T> {
+        private final int list;
+        private final AtomicReferenceArray<Object> decoded;
+
+        NodeList(int list) {
+            this.list = list;
+            this.decoded = new AtomicReferenceArray<>(nodes[list]);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get(int index) {
+            Object node = decoded.get(index);
+            if (node == null) {
+                // Readers that race here both decode; the first node stored wins
+                Object fresh = decode(nodes[list + 1 + index]);
+                node = decoded.compareAndExchange(index, null, fresh);
+                if (node == null) node = fresh;
+            }
+            return (T) node;
+        }
+
+        @Override
+        public int size() {
+            return decoded.length();
+        }
+    }
+
+    private static class Encoder implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+        private final NodeListener listener;
+        private final List<Object> constants = new ArrayList<>();
+        private final Map<Object, Integer> constantIndex = new HashMap<>();
+        private int[] nodes = new int[1024];
+        private int size = 0;
+
+        Encoder(NodeListener listener) {
+            this.listener = listener;
+        }
+
+        private void put(int value) {
+            if (size == nodes.length) nodes = Arrays.copyOf(nodes, size * 2);
+            nodes[size++] = value;
+        }
+
+        private int constant(Object value) {
+            if (value == null) return -1;
+            Integer index = constantIndex.get(value);
+            if (index == null) {
+                index = constants.size();
+                constants.add(value);
+                constantIndex.put(value, index);
+            }
+            return index;
+        }
+
+        private void token(Token token) {
+            if (token == null) {
+                put(-1);
+                put(-1);
+                put(-1);
+                return;
+            }
+            put(token.type.ordinal());
+            put(constant(token.lexeme));
+            put(token.line);
+        }
+
+        private int node(Object node) {
+            if (node instanceof Expr) return ((Expr) node).accept(this);
+            if (node instanceof Stmt) return ((Stmt) node).accept(this);
+            return -1;
+        }
+
+        int list(List<?> items) {
+            int[] children = new int[items.size()];
+            for (int i = 0; i < children.length; i++) children[i] = node(items.get(i));
+            int at = size;
+            put(children.length);
+            for (int child: children) put(child);
+            return at;
+        }
+
+        private int tokens(List<Token> tokens) {
+            int at = size;
+            put(tokens.size());
+            for (Token token: tokens) token(token);
+            return at;
+        }
+
+        private int end(Object node, int at) {
+            if (listener != null) listener.node(node, at);
+            return at;
+        }
+
+        @Override
+        public Integer visitBinaryExpr(Expr.Binary node) {
+            int left = node(node.left);
+            int right = node(node.right);
+            int at = size;
+            put(EXPR_BINARY);
+            put(left);
+            token(node.operator);
+            put(right);
+            return end(node, at);
+        }
+
+        @Override
+        public Integer visitCallExpr(Expr.Call node) {
+            int callee = node(node.callee);
+            int arguments = list(node.arguments);
+            int at = size;
+            put(EXPR_CALL);
+            put(callee);
+            token(node.paren);
+            put(arguments);
+            return end(node, at);
+        }
+
+        @Override
+        public Integer visitGetExpr(Expr.Get node) {
+            int object = node(node.object);
+            int at = size;
+            put(EXPR_GET);
+            put(object);
+            token(node.name);
+            return end(node, at);
+        }
+
+        @Override
+        public Integer visitThisExpr(Expr.This node) {
+            int at = size;
+            put(EXPR_THIS);
+            token(node.keyword);
+            return end(node, at);
+        }
+
+        @Override
+        public Integer visitSuperExpr(Expr.Super node) {
+            int at = size;
+            put(EXPR_SUPER);
+            token(node.keyword);
+            token(node.method);
+            return end(node, at);
+        }
+
+        @Override
+        public Integer visitSetExpr(Expr.Set node) {
+            int object = node(node.object);
+            int value = node(node.value);
+            int at = size;
+            put(EXPR_SET);
+            put(object);
+            token(node.name);
+            put(value);
+            return end(node, at);
+        }
+
+        @Override
+        public Integer visitLambdaExpr(Expr.Lambda node) {
+            int params = tokens(node.params);
+            int body = list(node.body);
+            int at = size;
+            put(EXPR_LAMBDA);
+            token(node.name);
+            put(params);
+            put(body);
+            return end(node, at);
+        }
+
+        @Override
+        public Integer visitGroupingExpr(Expr.Grouping node) {
+            int expr = node(node.expr);
+            int at = size;
+            put(EXPR_GROUPING);
+            put(expr);
+            return end(node, at);
+        }
+
+        @Override
+        public Integer visitLiteralExpr(Expr.Literal node) {
+            int value = constant(node.value);
+            int at = size;
+            put(EXPR_LITERAL);
+            put(value);
+            return end(node, at);
+        }
+
+        @Override
+        public Integer visitUnaryExpr(Expr.Unary node) {
+            int right = node(node.right);
+            int at = size;
+            put(EXPR_UNARY);
+            token(node.operator);
+            put(right);
+            return end(node, at);
+        }
+
+        @Override
+        public Integer visitTernaryExpr(Expr.Ternary node) {
+            int cond = node(node.cond);
+            int left = node(node.left);
+            int right = node(node.right);
+            int at = size;
+            put(EXPR_TERNARY);
+            put(cond);
+            put(left);
+            put(right);
+            return end(node, at);
+        }
+
+        @Override
+        public Integer visitVariableExpr(Expr.Variable node) {
+            int at = size;
+            put(EXPR_VARIABLE);
+            token(node.name);
+            return end(node, at);
+        }
+
+        @Override
+        public Integer visitAssignExpr(Expr.Assign node) {
+            int value = node(node.value);
+            int at = size;
+            put(EXPR_ASSIGN);
+            token(node.name);
+            put(value);
+            return end(node, at);
+        }
+
+        @Override
+        public Integer visitLogicalExpr(Expr.Logical node) {
+            int left = node(node.left);
+            int right = node(node.right);
+            int at = size;
+            put(EXPR_LOGICAL);
+            token(node.name);
+            put(left);
+            put(right);
+            return end(node, at);
+        }
+
+        @Override
+        public Integer visitAsyncExpr(Expr.Async node) {
+            int call = node(node.call);
+            int at = size;
+            put(EXPR_ASYNC);
+            token(node.keyword);
+            put(call);
+            return end(node, at);
+        }
+
+        @Override
+        public Integer visitAwaitExpr(Expr.Await node) {
+            int value = node(node.value);
+            int at = size;
+            put(EXPR_AWAIT);
+            token(node.keyword);
+            put(value);
+            return end(node, at);
+        }
+
+        @Override
+        public Integer visitExpressionStmt(Stmt.Expression node) {
+            int expression = node(node.expression);
+            int at = size;
+            put(STMT_EXPRESSION);
+            put(expression);
+            return end(node, at);
+        }
+
+        @Override
+        public Integer visitFunctionStmt(Stmt.Function node) {
+            int params = tokens(node.params);
+            int body = list(node.body);
+            int at = size;
+            put(STMT_FUNCTION);
+            token(node.name);
+            put(params);
+            put(body);
+            return end(node, at);
+        }
+
+        @Override
+        public Integer visitReturnStmt(Stmt.Return node) {
+            int value = node(node.value);
+            int at = size;
+            put(STMT_RETURN);
+            token(node.keyword);
+            put(value);
+            return end(node, at);
+        }
+
+        @Override
+        public Integer visitPrintStmt(Stmt.Print node) {
+            int expression = node(node.expression);
+            int at = size;
+            put(STMT_PRINT);
+            put(expression);
+            return end(node, at);
+        }
+
+        @Override
+        public Integer visitVarStmt(Stmt.Var node) {
+            int initializer = node(node.initializer);
+            int at = size;
+            put(STMT_VAR);
+            token(node.name);
+            put(initializer);
+            return end(node, at);
+        }
+
+        @Override
+        public Integer visitBlockStmt(Stmt.Block node) {
+            int statements = list(node.statements);
+            int at = size;
+            put(STMT_BLOCK);
+            put(statements);
+            return end(node, at);
+        }
+
+        @Override
+        public Integer visitClassStmt(Stmt.Class node) {
+            int superclass = node(node.superclass);
+            int statics = list(node.statics);
+            int getters = list(node.getters);
+            int methods = list(node.methods);
+            int at = size;
+            put(STMT_CLASS);
+            token(node.name);
+            put(superclass);
+            put(statics);
+            put(getters);
+            put(methods);
+            return end(node, at);
+        }
+
+        @Override
+        public Integer visitReplStmt(Stmt.Repl node) {
+            int expression = node(node.expression);
+            int at = size;
+            put(STMT_REPL);
+            put(expression);
+            return end(node, at);
+        }
+
+        @Override
+        public Integer visitIfStmt(Stmt.If node) {
+            int cond = node(node.cond);
+            int thenBranch = node(node.thenBranch);
+            int elseBranch = node(node.elseBranch);
+            int at = size;
+            put(STMT_IF);
+            put(cond);
+            put(thenBranch);
+            put(elseBranch);
+            return end(node, at);
+        }
+
+        @Override
+        public Integer visitWhileStmt(Stmt.While node) {
+            int cond = node(node.cond);
+            int loop = node(node.loop);
+            int inc = node(node.inc);
+            int at = size;
+            put(STMT_WHILE);
+            put(cond);
+            put(loop);
+            put(inc);
+            return end(node, at);
+        }
+
+        @Override
+        public Integer visitLogicStmt(Stmt.Logic node) {
+            int at = size;
+            put(STMT_LOGIC);
+            token(node.name);
+            return end(node, at);
+        }
+
+        @Override
+        public Integer visitParallelForStmt(Stmt.ParallelFor node) {
+            int lower = node(node.lower);
+            int upper = node(node.upper);
+            int step = node(node.step);
+            int reducers = tokens(node.reducers);
+            int targets = list(node.targets);
+            int body = node(node.body);
+            int at = size;
+            put(STMT_PARALLELFOR);
+            token(node.keyword);
+            token(node.name);
+            put(lower);
+            token(node.comparison);
+            put(upper);
+            put(step);
+            put(reducers);
+            put(targets);
+            put(body);
+            return end(node, at);
+        }
+
+        @Override
+        public Integer visitProbeStmt(Stmt.Probe node) {
+            int stmt = node(node.stmt);
+            int at = size;
+            put(STMT_PROBE);
+            put(node.line);
+            put(stmt);
+            return end(node, at);
+        }
+    }
+}
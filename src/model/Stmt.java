@@ -15,6 +15,8 @@ public abstract class Stmt {
         R visitIfStmt(If stmt);
         R visitWhileStmt(While stmt);
         R visitLogicStmt(Logic stmt);
+        R visitParallelForStmt(ParallelFor stmt);
+        R visitProbeStmt(Probe stmt);
     }
     public static class Expression extends Stmt {
         public Expression(Expr expression) {
@@ -172,6 +174,48 @@ public abstract class Stmt {
 
         public final Token name;
     }
+    public static class ParallelFor extends Stmt {
+        public ParallelFor(Token keyword, Token name, Expr lower, Token comparison, Expr upper, Expr step, List<Token> reducers, List<Expr.Variable> targets, Stmt body) {
+            this.keyword = keyword;
+            this.name = name;
+            this.lower = lower;
+            this.comparison = comparison;
+            this.upper = upper;
+            this.step = step;
+            this.reducers = reducers;
+            this.targets = targets;
+            this.body = body;
+        }
+
+        @Override
+        public<R> R accept(Visitor<R> visitor) {
+            return visitor.visitParallelForStmt(this);
+        }
+
+        public final Token keyword;
+        public final Token name;
+        public final Expr lower;
+        public final Token comparison;
+        public final Expr upper;
+        public final Expr step;
+        public final List<Token> reducers;
+        public final List<Expr.Variable> targets;
+        public final Stmt body;
+    }
+    public static class Probe extends Stmt {
+        public Probe(int line, Stmt stmt) {
+            this.line = line;
+            this.stmt = stmt;
+        }
+
+        @Override
+        public<R> R accept(Visitor<R> visitor) {
+            return visitor.visitProbeStmt(this);
+        }
+
+        public final int line;
+        public final Stmt stmt;
+    }
 
     public abstract <R> R accept(Visitor<R> visitor);
 }
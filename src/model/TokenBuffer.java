@@ -0,0 +1,77 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * Structure-of-arrays token storage: one int per token for each of type,
+ * start offset, length and line.  Lexemes and literals are cut from the
+ * source only when a {@link Token} is requested.
+ */
+public class TokenBuffer implements TokenStream {
+
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final CharSequence source;
+
+    private int[] types = new int[256];
+    private int[] starts = new int[256];
+    private int[] lengths = new int[256];
+    private int[] lines = new int[256];
+    private int size = 0;
+
+    public TokenBuffer(CharSequence source) {
+        this.source = source;
+    }
+
+    public void add(TokenType type, int start, int length, int line) {
+        if (size == types.length) {
+            int capacity = size * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+        }
+        types[size] = type.ordinal();
+        starts[size] = start;
+        lengths[size] = length;
+        lines[size] = line;
+        size++;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public TokenType type(int index) {
+        return TYPES[types[index]];
+    }
+
+    @Override
+    public int line(int index) {
+        return lines[index];
+    }
+
+    @Override
+    public String lexeme(int index) {
+        return source.subSequence(starts[index], starts[index] + lengths[index]).toString();
+    }
+
+    public Object literal(int index) {
+        switch (type(index)) {
+            case NUMBER:
+                return Double.parseDouble(lexeme(index));
+            case STRING:
+                return source.subSequence(starts[index] + 1, starts[index] + lengths[index] - 1).toString();
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public Token get(int index) {
+        return new Token(type(index), lexeme(index), literal(index), lines[index]);
+    }
+
+}
@@ -0,0 +1,46 @@
+package model;
+
+import java.util.List;
+
+/**
+ * Random access to scanned tokens.  Callers that only need the type, line
+ * or lexeme of a token should use {@link #type(int)}, {@link #line(int)} or
+ * {@link #lexeme(int)}, which let compact implementations avoid
+ * materializing a {@link Token}.
+ */
+public interface TokenStream {
+
+    int size();
+
+    TokenType type(int index);
+
+    Token get(int index);
+
+    default int line(int index) {
+        return get(index).line;
+    }
+
+    default String lexeme(int index) {
+        return get(index).lexeme;
+    }
+
+    static TokenStream of(List<Token> tokens) {
+        return new TokenStream() {
+            @Override
+            public int size() {
+                return tokens.size();
+            }
+
+            @Override
+            public TokenType type(int index) {
+                return tokens.get(index).type;
+            }
+
+            @Override
+            public Token get(int index) {
+                return tokens.get(index);
+            }
+        };
+    }
+
+}
@@ -2,6 +2,7 @@ package tool;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -15,7 +16,7 @@ public class GenerateAst {
 
         // String outputDir = args[0];
         String outputDir = "./src/model";
-        defineAst(outputDir, "Expr", Arrays.asList(
+        List<String> exprTypes = Arrays.asList(
                 "Binary     : Expr left, Token operator, Expr right",
                 "Call       : Expr callee, Token paren, List<Expr> arguments",
                 "Get        : Expr object, Token name",
@@ -29,10 +30,13 @@ public class GenerateAst {
                 "Ternary    : Expr cond, Expr left, Expr right",
                 "Variable   : Token name",
                 "Assign     : Token name, Expr value",
-                "Logical    : Token name, Expr left, Expr right"
-        ));
+                "Logical    : Token name, Expr left, Expr right",
+                "Async      : Token keyword, Expr.Call call",
+                "Await      : Token keyword, Expr value"
+        );
+        defineAst(outputDir, "Expr", exprTypes);
 
-        defineAst(outputDir, "Stmt", Arrays.asList(
+        List<String> stmtTypes = Arrays.asList(
                 "Expression : Expr expression",
                 "Function   : Token name, List<Token> params, List<Stmt> body",
                 "Return     : Token keyword, Expr value",
@@ -43,8 +47,13 @@ public class GenerateAst {
                 "Repl       : Expr expression",
                 "If         : Expr cond, Stmt thenBranch, Stmt elseBranch",
                 "While      : Expr cond, Stmt loop, Stmt inc",
-                "Logic      : Token name"
-        ));
+                "Logic      : Token name",
+                "ParallelFor : Token keyword, Token name, Expr lower, Token comparison, Expr upper, Expr step, List<Token> reducers, List<Expr.Variable> targets, Stmt body",
+                "Probe      : int line, Stmt stmt"
+        );
+        defineAst(outputDir, "Stmt", stmtTypes);
+
+        defineFlat(outputDir, exprTypes, stmtTypes);
     }
 
     private static void defineAst(
@@ -118,4 +127,322 @@ public class GenerateAst {
         writer.println("    }");
     }
 
+    // FlatAst packs every node into one int[]: [kind, fields...].  Child
+    // nodes and lists are offsets, a Token is inlined as [type, lexeme, line]
+    // and any other value is an index into the constant pool; -1 is null.
+    private static void defineFlat(
+            String outputDir, List<String> exprTypes, List<String> stmtTypes)
+        throws IOException {
+        String path = outputDir + "/FlatAst.java";
+        PrintWriter writer = new PrintWriter(path, "UTF-8");
+
+        List<String[]> kinds = new ArrayList<>();
+        for (String type: exprTypes) kinds.add(new String[] {"Expr", type});
+        for (String type: stmtTypes) kinds.add(new String[] {"Stmt", type});
+
+        writer.println("package model;");
+        writer.println();
+        writer.println("import java.util.AbstractList;");
+        writer.println("import java.util.ArrayList;");
+        writer.println("import java.util.Arrays;");
+        writer.println("import java.util.HashMap;");
+        writer.println("import java.util.List;");
+        writer.println("import java.util.Map;");
+        writer.println("import java.util.concurrent.atomic.AtomicReferenceArray;");
+        writer.println();
+        writer.println("// Generated by tool.GenerateAst");
+        writer.println("public class FlatAst {");
+        writer.println();
+        writer.println("    public interface NodeListener {");
+        writer.println("        void node(Object node, int offset);");
+        writer.println("    }");
+        writer.println();
+        for (int i = 0; i < kinds.size(); i++) {
+            writer.println("    public static final int " + kindName(kinds.get(i)) + " = " + i + ";");
+        }
+        writer.println("    private static final int FIRST_STMT = " + exprTypes.size() + ";");
+        writer.println();
+        writer.println("    private static final TokenType[] TOKEN_TYPES = TokenType.values();");
+        writer.println();
+        writer.println("    private final int[] nodes;");
+        writer.println("    private final Object[] constants;");
+        writer.println("    private final int root;");
+        writer.println();
+        writer.println("    private NodeListener decodeListener;");
+        writer.println("    private final List<Stmt> statements;");
+        writer.println();
+        writer.println("    public FlatAst(int[] nodes, Object[] constants, int root) {");
+        writer.println("        this.nodes = nodes;");
+        writer.println("        this.constants = constants;");
+        writer.println("        this.root = root;");
+        writer.println("        this.statements = new NodeList<>(root);");
+        writer.println("    }");
+        writer.println();
+        writer.println("    public static FlatAst encode(List<Stmt> statements, NodeListener listener) {");
+        writer.println("        Encoder encoder = new Encoder(listener);");
+        writer.println("        int root = encoder.list(statements);");
+        writer.println("        return new FlatAst(Arrays.copyOf(encoder.nodes, encoder.size),");
+        writer.println("                encoder.constants.toArray(), root);");
+        writer.println("    }");
+        writer.println();
+        writer.println("    public int[] nodes() {");
+        writer.println("        return nodes;");
+        writer.println("    }");
+        writer.println();
+        writer.println("    public Object[] constants() {");
+        writer.println("        return constants;");
+        writer.println("    }");
+        writer.println();
+        writer.println("    public int root() {");
+        writer.println("        return root;");
+        writer.println("    }");
+        writer.println();
+        writer.println("    // Called with every node as it is decoded, and its offset in nodes()");
+        writer.println("    public FlatAst onDecode(NodeListener listener) {");
+        writer.println("        this.decodeListener = listener;");
+        writer.println("        return this;");
+        writer.println("    }");
+        writer.println();
+        writer.println("    // Nodes are decoded on first access and then kept, so walking the");
+        writer.println("    // result twice sees the same objects.");
+        writer.println("    public List<Stmt> statements() {");
+        writer.println("        return statements;");
+        writer.println("    }");
+        writer.println();
+        writer.println("    private Token token(int at) {");
+        writer.println("        if (nodes[at] < 0) return null;");
+        writer.println("        return new Token(TOKEN_TYPES[nodes[at]], (String) constants[nodes[at + 1]], null, nodes[at + 2]);");
+        writer.println("    }");
+        writer.println();
+        writer.println("    private Object constant(int index) {");
+        writer.println("        return index < 0 ? null : constants[index];");
+        writer.println("    }");
+        writer.println();
+        writer.println("    private List<Token> tokens(int list) {");
+        writer.println("        List<Token> tokens = new ArrayList<>(nodes[list]);");
+        writer.println("        for (int i = 0; i < nodes[list]; i++) tokens.add(token(list + 1 + i * 3));");
+        writer.println("        return tokens;");
+        writer.println("    }");
+        writer.println();
+        writer.println("    private Object decode(int node) {");
+        writer.println("        if (node < 0) return null;");
+        writer.println("        Object decoded = nodes[node] < FIRST_STMT ? decodeExpr(node) : decodeStmt(node);");
+        writer.println("        if (decodeListener != null) decodeListener.node(decoded, node);");
+        writer.println("        return decoded;");
+        writer.println("    }");
+        writer.println();
+        writer.println("    private Expr expr(int node) {");
+        writer.println("        return (Expr) decode(node);");
+        writer.println("    }");
+        writer.println();
+        writer.println("    private Stmt stmt(int node) {");
+        writer.println("        return (Stmt) decode(node);");
+        writer.println("    }");
+        defineDecoder(writer, "Expr", exprTypes);
+        defineDecoder(writer, "Stmt", stmtTypes);
+        writer.println();
+        writer.println("    private class NodeList<T> extends AbstractList<T> {");
+        writer.println("        private final int list;");
+        writer.println("        private final AtomicReferenceArray<Object> decoded;");
+        writer.println();
+        writer.println("        NodeList(int list) {");
+        writer.println("            this.list = list;");
+        writer.println("            this.decoded = new AtomicReferenceArray<>(nodes[list]);");
+        writer.println("        }");
+        writer.println();
+        writer.println("        @Override");
+        writer.println("        @SuppressWarnings(\"unchecked\")");
+        writer.println("        public T get(int index) {");
+        writer.println("            Object node = decoded.get(index);");
+        writer.println("            if (node == null) {");
+        writer.println("                // Readers that race here both decode; the first node stored wins");
+        writer.println("                Object fresh = decode(nodes[list + 1 + index]);");
+        writer.println("                node = decoded.compareAndExchange(index, null, fresh);");
+        writer.println("                if (node == null) node = fresh;");
+        writer.println("            }");
+        writer.println("            return (T) node;");
+        writer.println("        }");
+        writer.println();
+        writer.println("        @Override");
+        writer.println("        public int size() {");
+        writer.println("            return decoded.length();");
+        writer.println("        }");
+        writer.println("    }");
+        defineEncoder(writer, kinds);
+        writer.println("}");
+        writer.close();
+    }
+
+    private static String kindName(String[] kind) {
+        String className = kind[1].split(":")[0].trim();
+        return kind[0].toUpperCase() + "_" + className.toUpperCase();
+    }
+
+    private static void defineDecoder(
+            PrintWriter writer, String baseName, List<String> types) {
+        writer.println();
+        writer.println("    private " + baseName + " decode" + baseName + "(int node) {");
+        writer.println("        int at = node + 1;");
+        writer.println("        switch (nodes[node]) {");
+        for (String type: types) {
+            String className = type.split(":")[0].trim();
+            String[] fields = type.split(":")[1].trim().split(", ");
+            List<String> args = new ArrayList<>();
+            int offset = 0;
+            for (String field: fields) {
+                String fieldType = field.split(" ")[0];
+                String name = field.split(" ")[1];
+                String slot = "nodes[" + at(offset) + "]";
+                if (fieldType.equals("Token")) {
+                    args.add("token(" + at(offset) + ")");
+                } else if (fieldType.equals("Expr")) {
+                    args.add("expr(" + slot + ")");
+                } else if (fieldType.equals("Stmt")) {
+                    args.add("stmt(" + slot + ")");
+                } else if (fieldType.startsWith("Expr.") || fieldType.startsWith("Stmt.")) {
+                    args.add("(" + fieldType + ") decode(" + slot + ")");
+                } else if (fieldType.equals("List<Token>")) {
+                    args.add("tokens(" + slot + ")");
+                } else if (fieldType.startsWith("List<")) {
+                    args.add("new NodeList<>(" + slot + ")");
+                } else if (fieldType.equals("int")) {
+                    args.add(slot);
+                } else if (fieldType.equals("Object")) {
+                    args.add("constant(" + slot + ")");
+                } else {
+                    args.add("(" + fieldType + ") constant(" + slot + ")");
+                }
+                offset += width(field);
+            }
+            writer.println("            case " + kindName(new String[] {baseName, type}) + ":");
+            writer.println("                return new " + baseName + "." + className + "(" +
+                    String.join(", ", args) + ");");
+        }
+        writer.println("            default:");
+        writer.println("                throw new IllegalStateException(\"Not a " + baseName +
+                " node: \" + nodes[node]);");
+        writer.println("        }");
+        writer.println("    }");
+    }
+
+    private static String at(int offset) {
+        return offset == 0 ? "at" : "at + " + offset;
+    }
+
+    private static int width(String field) {
+        return field.startsWith("Token ") ? 3 : 1;
+    }
+
+    private static void defineEncoder(PrintWriter writer, List<String[]> kinds) {
+        writer.println();
+        writer.println("    private static class Encoder implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {");
+        writer.println("        private final NodeListener listener;");
+        writer.println("        private final List<Object> constants = new ArrayList<>();");
+        writer.println("        private final Map<Object, Integer> constantIndex = new HashMap<>();");
+        writer.println("        private int[] nodes = new int[1024];");
+        writer.println("        private int size = 0;");
+        writer.println();
+        writer.println("        Encoder(NodeListener listener) {");
+        writer.println("            this.listener = listener;");
+        writer.println("        }");
+        writer.println();
+        writer.println("        private void put(int value) {");
+        writer.println("            if (size == nodes.length) nodes = Arrays.copyOf(nodes, size * 2);");
+        writer.println("            nodes[size++] = value;");
+        writer.println("        }");
+        writer.println();
+        writer.println("        private int constant(Object value) {");
+        writer.println("            if (value == null) return -1;");
+        writer.println("            Integer index = constantIndex.get(value);");
+        writer.println("            if (index == null) {");
+        writer.println("                index = constants.size();");
+        writer.println("                constants.add(value);");
+        writer.println("                constantIndex.put(value, index);");
+        writer.println("            }");
+        writer.println("            return index;");
+        writer.println("        }");
+        writer.println();
+        writer.println("        private void token(Token token) {");
+        writer.println("            if (token == null) {");
+        writer.println("                put(-1);");
+        writer.println("                put(-1);");
+        writer.println("                put(-1);");
+        writer.println("                return;");
+        writer.println("            }");
+        writer.println("            put(token.type.ordinal());");
+        writer.println("            put(constant(token.lexeme));");
+        writer.println("            put(token.line);");
+        writer.println("        }");
+        writer.println();
+        writer.println("        private int node(Object node) {");
+        writer.println("            if (node instanceof Expr) return ((Expr) node).accept(this);");
+        writer.println("            if (node instanceof Stmt) return ((Stmt) node).accept(this);");
+        writer.println("            return -1;");
+        writer.println("        }");
+        writer.println();
+        writer.println("        int list(List<?> items) {");
+        writer.println("            int[] children = new int[items.size()];");
+        writer.println("            for (int i = 0; i < children.length; i++) children[i] = node(items.get(i));");
+        writer.println("            int at = size;");
+        writer.println("            put(children.length);");
+        writer.println("            for (int child: children) put(child);");
+        writer.println("            return at;");
+        writer.println("        }");
+        writer.println();
+        writer.println("        private int tokens(List<Token> tokens) {");
+        writer.println("            int at = size;");
+        writer.println("            put(tokens.size());");
+        writer.println("            for (Token token: tokens) token(token);");
+        writer.println("            return at;");
+        writer.println("        }");
+        writer.println();
+        writer.println("        private int end(Object node, int at) {");
+        writer.println("            if (listener != null) listener.node(node, at);");
+        writer.println("            return at;");
+        writer.println("        }");
+
+        for (String[] kind: kinds) {
+            String baseName = kind[0];
+            String className = kind[1].split(":")[0].trim();
+            String[] fields = kind[1].split(":")[1].trim().split(", ");
+            writer.println();
+            writer.println("        @Override");
+            writer.println("        public Integer visit" + className + baseName + "(" +
+                    baseName + "." + className + " node) {");
+            // Children first, so a node's fields are contiguous
+            for (String field: fields) {
+                String fieldType = field.split(" ")[0];
+                String name = field.split(" ")[1];
+                if (fieldType.equals("Token") || fieldType.equals("int")) continue;
+                String encode;
+                if (fieldType.equals("List<Token>")) {
+                    encode = "tokens(node." + name + ")";
+                } else if (fieldType.startsWith("List<")) {
+                    encode = "list(node." + name + ")";
+                } else if (fieldType.startsWith("Expr") || fieldType.startsWith("Stmt")) {
+                    encode = "node(node." + name + ")";
+                } else {
+                    encode = "constant(node." + name + ")";
+                }
+                writer.println("            int " + name + " = " + encode + ";");
+            }
+            writer.println("            int at = size;");
+            writer.println("            put(" + kindName(kind) + ");");
+            for (String field: fields) {
+                String fieldType = field.split(" ")[0];
+                String name = field.split(" ")[1];
+                if (fieldType.equals("Token")) {
+                    writer.println("            token(node." + name + ");");
+                } else if (fieldType.equals("int")) {
+                    writer.println("            put(node." + name + ");");
+                } else {
+                    writer.println("            put(" + name + ");");
+                }
+            }
+            writer.println("            return end(node, at);");
+            writer.println("        }");
+        }
+        writer.println("    }");
+    }
+
 }